@@ -0,0 +1,73 @@
+package me.dje.life;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Runs the benchmarks and reports the grid benchmarks per cell and 
+ * generation, so that boards of different sizes and different engines can
+ * be compared directly. Takes the usual JMH command line options.
+ * @author dylan
+ *
+ */
+public class BenchmarkMain {
+	public static void main(String args[]) throws Exception {
+		Collection<RunResult> results = 
+				new Runner(new CommandLineOptions(args)).run();
+
+		System.out.println();
+		System.out.printf("%-28s %-40s %14s %16s%n", "Benchmark", "Params", 
+				"ns/op", "ns/cell/gen");
+		for(RunResult r : results) {
+			BenchmarkParams params = r.getParams();
+			Result score = r.getPrimaryResult();
+			String name = params.getBenchmark();
+			name = name.substring(name.lastIndexOf('.', 
+					name.lastIndexOf('.') - 1) + 1);
+			StringBuilder desc = new StringBuilder();
+			for(String key : params.getParamsKeys()) {
+				desc.append(key).append('=').append(params.getParam(key))
+						.append(' ');
+			}
+			// A single shot times a whole batch of calls
+			double perOp = score.getScore();
+			if(params.getMode() == Mode.SingleShotTime)
+				perOp /= params.getMeasurement().getBatchSize();
+			String perCell = "-";
+			long work = cellGenerations(name, params);
+			if(work > 0 && score.getScoreUnit().equals("ns/op"))
+				perCell = String.format("%.4f", perOp / work);
+			System.out.printf("%-28s %-40s %14.1f %16s%n", name, desc, 
+					perOp, perCell);
+		}
+	}
+
+	/**
+	 * Work out how many cell generations one operation of a benchmark
+	 * covers. Benchmarks ending in Many step STEPS generations, and 
+	 * operations which visit the board once without stepping count as one
+	 * generation.
+	 * @param name The benchmark, as Class.method
+	 * @param params The parameters of the run
+	 * @return The number of cell generations, or 0 if the benchmark does not
+	 * work on a board
+	 */
+	private static long cellGenerations(String name, BenchmarkParams params) {
+		String size = params.getParam("size");
+		if(size == null)
+			return 0;
+		int s = Integer.parseInt(size);
+		String board = params.getParam("board");
+		long cells = (long)StepBenchmark.boardWidth(board, s) 
+				* StepBenchmark.boardHeight(board, s);
+		if(name.endsWith("Many"))
+			return cells * StepBenchmark.STEPS;
+		return cells;
+	}
+}
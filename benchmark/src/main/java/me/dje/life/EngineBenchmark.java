@@ -0,0 +1,150 @@
+package me.dje.life;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the engines against each other, CellularGrid, SparseGrid and 
+ * HashLife, starting from the same board as StepBenchmark. The cells of the
+ * board are copied into each engine, so random boards are identical for 
+ * all of them.
+ *
+ * SparseGrid and HashLife have no edges, so once gliders reach the edge of
+ * the board they carry on rather than dying as they do in the CellularGrid.
+ * Each iteration starts again from the board as it was created, with a new
+ * HashLife so no memoized results are carried over.
+ * @author dylan
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, batchSize = StepBenchmark.STEPS)
+@Measurement(iterations = 20, batchSize = StepBenchmark.STEPS)
+@Fork(1)
+public class EngineBenchmark {
+	@Param({"10", "20", "30", "40"})
+	public int size;
+
+	@Param({"random", "gosper", "empty"})
+	public String board;
+
+	private CellularGrid start;
+	private int xs[], ys[];
+	private CellularGrid grid;
+	private SparseGrid sparse;
+	private HashLife hashLife;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		start = StepBenchmark.createBoard(board, size);
+		int n = 0;
+		xs = new int[16];
+		ys = new int[16];
+		for(int y = 0; y < start.getHeight(); y++) {
+			for(int x = 0; x < start.getWidth(); x++) {
+				if(!start.get(x, y))
+					continue;
+				if(n == xs.length) {
+					int grownX[] = new int[n << 1];
+					int grownY[] = new int[n << 1];
+					System.arraycopy(xs, 0, grownX, 0, n);
+					System.arraycopy(ys, 0, grownY, 0, n);
+					xs = grownX;
+					ys = grownY;
+				}
+				xs[n] = x;
+				ys[n] = y;
+				n++;
+			}
+		}
+		int trimmedX[] = new int[n];
+		int trimmedY[] = new int[n];
+		System.arraycopy(xs, 0, trimmedX, 0, n);
+		System.arraycopy(ys, 0, trimmedY, 0, n);
+		xs = trimmedX;
+		ys = trimmedY;
+	}
+
+	/**
+	 * Put every engine back to the board as it was created before each
+	 * iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void restore() {
+		grid = new CellularGrid(start.getWidth(), start.getHeight(), start);
+		sparse = new SparseGrid();
+		hashLife = new HashLife();
+		for(int i = 0; i < xs.length; i++) {
+			sparse.set(xs[i], ys[i]);
+			hashLife.set(xs[i], ys[i]);
+		}
+	}
+
+	/**
+	 * Step the CellularGrid one generation per call.
+	 */
+	@Benchmark
+	public CellularGrid grid() {
+		grid.step();
+		return grid;
+	}
+
+	/**
+	 * Step the CellularGrid STEPS generations per call.
+	 */
+	@Benchmark
+	public CellularGrid gridMany() {
+		grid.step(StepBenchmark.STEPS);
+		return grid;
+	}
+
+	/**
+	 * Step the SparseGrid one generation per call.
+	 */
+	@Benchmark
+	public SparseGrid sparse() {
+		sparse.step();
+		return sparse;
+	}
+
+	/**
+	 * Step the SparseGrid STEPS generations per call.
+	 */
+	@Benchmark
+	public SparseGrid sparseMany() {
+		sparse.step(StepBenchmark.STEPS);
+		return sparse;
+	}
+
+	/**
+	 * Advance the HashLife one generation per call.
+	 */
+	@Benchmark
+	public HashLife hashLife() {
+		hashLife.advance(1);
+		return hashLife;
+	}
+
+	/**
+	 * Advance the HashLife STEPS generations per call, in as few jumps as
+	 * it can.
+	 */
+	@Benchmark
+	public HashLife hashLifeMany() {
+		hashLife.advance(StepBenchmark.STEPS);
+		return hashLife;
+	}
+}
@@ -0,0 +1,64 @@
+package me.dje.life;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the whole-board operations of a CellularGrid which are not
+ * steps, on the same boards as StepBenchmark.
+ * @author dylan
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+	@Param({"10", "20", "30", "40"})
+	public int size;
+
+	@Param({"random", "gosper", "empty"})
+	public String board;
+
+	private CellularGrid grid;
+	private CellularGrid scratch;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		grid = StepBenchmark.createBoard(board, size);
+		scratch = new CellularGrid(grid.getWidth(), grid.getHeight(), 
+				grid.isWrap());
+	}
+
+	/**
+	 * Randomize a grid of the same size, leaving the board alone for the
+	 * other benchmarks.
+	 */
+	@Benchmark
+	public CellularGrid randomize() {
+		scratch.randomize();
+		return scratch;
+	}
+
+	/**
+	 * Copy the board into a rotated grid, as happens when the screen turns.
+	 */
+	@Benchmark
+	public CellularGrid rotate() {
+		return new CellularGrid(grid.getHeight(), grid.getWidth(), grid);
+	}
+}
@@ -0,0 +1,58 @@
+package me.dje.life;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing the map file shipped with the wallpaper. The file is
+ * read into memory once so only the parser is measured. Opening the file
+ * only indexes it, so gosper() measures what the wallpaper does at startup.
+ * @author dylan
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapFileBenchmark {
+	private String text;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Reader reader = new InputStreamReader(
+				MapFileBenchmark.class.getResourceAsStream("/life.points"));
+		StringBuilder sb = new StringBuilder();
+		char buffer[] = new char[1024];
+		int n;
+		while((n = reader.read(buffer)) > 0)
+			sb.append(buffer, 0, n);
+		reader.close();
+		text = sb.toString();
+	}
+
+	@Benchmark
+	public CellularMapFile parse() throws Exception {
+		return new CellularMapFile(new StringReader(text));
+	}
+
+	@Benchmark
+	public Object gosper() throws Exception {
+		return new CellularMapFile(new StringReader(text)).getPoints("gosper");
+	}
+}
@@ -0,0 +1,187 @@
+package me.dje.life;
+
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks stepping a CellularGrid. Boards are sized the way the wallpaper
+ * sizes them for each cell size in the preferences, on a 720x1280 screen,
+ * and each board is stepped with every engine mode of the grid.
+ *
+ * The board may also be the path of an RLE or Life 1.06 file, for example
+ * -p board=breeder.rle, which is loaded into a board of FILE_BOARD cells
+ * square whatever the cell size.
+ *
+ * Stepping changes the board, so each iteration starts again from the board
+ * as it was created and times a fixed batch of calls. Otherwise a random
+ * board would have settled into ash and the gliders of the gosper board
+ * would have left it long before the measurement started.
+ * @author dylan
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, batchSize = StepBenchmark.STEPS)
+@Measurement(iterations = 20, batchSize = StepBenchmark.STEPS)
+@Fork(1)
+public class StepBenchmark {
+	public static final int SCREEN_WIDTH = 720;
+	public static final int SCREEN_HEIGHT = 1280;
+	public static final int FILE_BOARD = 2048;
+	/**
+	 * The number of generations stepped by stepMany, and the number of
+	 * calls timed in each iteration.
+	 */
+	public static final int STEPS = 100;
+	/**
+	 * The seed of random boards, so every benchmark and engine is given the
+	 * same cells.
+	 */
+	public static final long SEED = 0x4C494645L;
+
+	/**
+	 * The cell size in pixels, as in the size preference.
+	 */
+	@Param({"10", "20", "30", "40"})
+	public int size;
+
+	@Param({"random", "gosper", "empty"})
+	public String board;
+
+	@Param({"words", "parallel", "incremental"})
+	public String engine;
+
+	private CellularGrid grid;
+	private long start[];
+	private byte startStates[];
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		grid = createBoard(board, size);
+		grid.setParallel(engine.equals("parallel"));
+		grid.setIncremental(engine.equals("incremental"));
+		start = grid.snapshot(null);
+		startStates = grid.snapshotStates(null);
+	}
+
+	/**
+	 * Put the board back as it was created before each iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void restore() {
+		grid.load(start, startStates, 0);
+	}
+
+	/**
+	 * Step the first STEPS generations of the board, one per call.
+	 */
+	@Benchmark
+	public CellularGrid step() {
+		grid.step();
+		return grid;
+	}
+
+	/**
+	 * Step STEPS generations per call, so an iteration covers the first
+	 * STEPS * STEPS generations and shows how the board runs once it has
+	 * begun to settle.
+	 */
+	@Benchmark
+	public CellularGrid stepMany() {
+		grid.step(STEPS);
+		return grid;
+	}
+
+	/**
+	 * Create a board the size the wallpaper would use. Random boards are
+	 * always filled from SEED.
+	 * @param board One of random, gosper or empty
+	 * @param size The cell size in pixels
+	 * @return The new grid
+	 * @throws Exception If the map file can not be read
+	 */
+	static CellularGrid createBoard(String board, int size) 
+			throws Exception {
+		int width = boardWidth(board, size);
+		int height = boardHeight(board, size);
+		if(isFile(board)) {
+			CellularGrid grid = new CellularGrid(width, height, false);
+			PatternImporter.read(board, new FileReader(board), grid, 
+					width / 4, height / 4);
+			return grid;
+		}
+		if(board.equals("gosper")) {
+			return new CellularGrid(readMapFile().getPoints("gosper"), 
+					width, height, false);
+		}
+		CellularGrid grid = new CellularGrid(width, height, false);
+		if(board.equals("random")) {
+			Random rand = new Random(SEED);
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					if(rand.nextBoolean())
+						grid.set(x, y);
+				}
+			}
+		} else if(!board.equals("empty"))
+			throw new IllegalArgumentException("Unknown board: " + board);
+		return grid;
+	}
+
+	/**
+	 * Determine whether a board is loaded from a pattern file.
+	 * @param board The board parameter
+	 * @return True if the board names an RLE or Life 1.06 file
+	 */
+	static boolean isFile(String board) {
+		String name = board.toLowerCase();
+		return name.endsWith(".rle") || name.endsWith(".lif") 
+				|| name.endsWith(".life");
+	}
+
+	/**
+	 * Get the width of a board.
+	 * @param board The board parameter
+	 * @param size The cell size in pixels
+	 * @return The width in cells
+	 */
+	static int boardWidth(String board, int size) {
+		return isFile(board) ? FILE_BOARD : SCREEN_WIDTH / size;
+	}
+
+	/**
+	 * Get the height of a board.
+	 * @param board The board parameter
+	 * @param size The cell size in pixels
+	 * @return The height in cells
+	 */
+	static int boardHeight(String board, int size) {
+		return isFile(board) ? FILE_BOARD : SCREEN_HEIGHT / size;
+	}
+
+	/**
+	 * Read the map file shipped with the wallpaper.
+	 * @return The parsed map file
+	 * @throws Exception If the file can not be read
+	 */
+	static CellularMapFile readMapFile() throws Exception {
+		return new CellularMapFile(new InputStreamReader(
+				StepBenchmark.class.getResourceAsStream("/life.points")));
+	}
+}
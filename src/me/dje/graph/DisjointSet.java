@@ -0,0 +1,95 @@
+package me.dje.graph;
+
+/**
+ * A union-find structure over the integers 0 to n - 1, kept in two int
+ * arrays. Sets are merged by size and paths are halved as they are followed,
+ * so any sequence of operations runs in very nearly linear time.
+ *
+ * Elements must be made before they are used, which lets a large structure
+ * be reused for a small number of elements without clearing it first.
+ * @author dylan
+ *
+ */
+public class DisjointSet {
+	private int parent[];
+	private int size[];
+
+	/**
+	 * Create a structure for the elements 0 to n - 1.
+	 * @param n The number of elements
+	 */
+	public DisjointSet(int n) {
+		parent = new int[n];
+		size = new int[n];
+	}
+
+	/**
+	 * Get the number of elements the structure can hold.
+	 * @return The capacity
+	 */
+	public int capacity() {
+		return parent.length;
+	}
+
+	/**
+	 * Make an element a set of its own.
+	 * @param i The element
+	 */
+	public void make(int i) {
+		parent[i] = i;
+		size[i] = 1;
+	}
+
+	/**
+	 * Make every element a set of its own.
+	 */
+	public void makeAll() {
+		for(int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+	}
+
+	/**
+	 * Find the representative of the set holding an element.
+	 * @param i The element
+	 * @return The root element of its set
+	 */
+	public int find(int i) {
+		while(parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merge the sets holding two elements.
+	 * @param a An element
+	 * @param b Another element
+	 * @return True if the elements were in different sets
+	 */
+	public boolean union(int a, int b) {
+		a = find(a);
+		b = find(b);
+		if(a == b)
+			return false;
+		if(size[a] < size[b]) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		parent[b] = a;
+		size[a] += size[b];
+		return true;
+	}
+
+	/**
+	 * Get the number of elements in the set holding an element.
+	 * @param i The element
+	 * @return The size of its set
+	 */
+	public int size(int i) {
+		return size[find(i)];
+	}
+}
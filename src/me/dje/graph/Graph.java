@@ -1,24 +1,102 @@
 package me.dje.graph;
 
-import java.util.HashMap;
-
-/*
- * 
+/**
+ * An undirected graph over the vertices 0 to n - 1. Edges are kept as pairs
+ * of ints in growable arrays, so building a graph never boxes a vertex or
+ * an edge.
+ * @author dylan
+ *
  */
-public class Graph<E,V> {
-	private HashMap<E, Edge<E, V>> nodes;
-	
-	public Graph() {
-		nodes = new HashMap<E, Edge<E, V>>();
-	}
-	
-	public boolean connected() {
-		return true;
+public class Graph {
+	private final int vertices;
+	private int from[], to[];
+	private int edges;
+
+	/**
+	 * Create a graph with no edges.
+	 * @param vertices The number of vertices
+	 */
+	public Graph(int vertices) {
+		this.vertices = vertices;
+		this.from = new int[16];
+		this.to = new int[16];
+		this.edges = 0;
 	}
-	
-	class Vertex {
-		public Vertex() {
-			
+
+	/**
+	 * Add an edge between two vertices.
+	 * @param a A vertex
+	 * @param b Another vertex
+	 */
+	public void addEdge(int a, int b) {
+		if(a < 0 || a >= vertices || b < 0 || b >= vertices)
+			throw new IndexOutOfBoundsException("No vertex " + a + " or " + b);
+		if(edges == from.length) {
+			int grown[] = new int[edges * 2];
+			System.arraycopy(from, 0, grown, 0, edges);
+			from = grown;
+			grown = new int[edges * 2];
+			System.arraycopy(to, 0, grown, 0, edges);
+			to = grown;
 		}
+		from[edges] = a;
+		to[edges] = b;
+		edges++;
+	}
+
+	/**
+	 * Get the number of vertices.
+	 * @return The number of vertices
+	 */
+	public int getVertexCount() {
+		return vertices;
+	}
+
+	/**
+	 * Get the number of edges.
+	 * @return The number of edges
+	 */
+	public int getEdgeCount() {
+		return edges;
+	}
+
+	/**
+	 * Get one end of an edge.
+	 * @param e The edge, in the order they were added
+	 * @return The first vertex of the edge
+	 */
+	public int getFrom(int e) {
+		return from[e];
+	}
+
+	/**
+	 * Get the other end of an edge.
+	 * @param e The edge, in the order they were added
+	 * @return The second vertex of the edge
+	 */
+	public int getTo(int e) {
+		return to[e];
+	}
+
+	/**
+	 * Merge the sets of the ends of every edge.
+	 * @param set A structure with every vertex made
+	 */
+	public void union(DisjointSet set) {
+		for(int e = 0; e < edges; e++)
+			set.union(from[e], to[e]);
+	}
+
+	/**
+	 * Determine whether every vertex can be reached from every other.
+	 * @return True if the graph is connected
+	 */
+	public boolean connected() {
+		if(vertices == 0)
+			return true;
+		DisjointSet set = new DisjointSet(vertices);
+		set.makeAll();
+		union(set);
+		return set.size(0) == vertices;
 	}
 }
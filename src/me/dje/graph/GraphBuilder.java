@@ -1,25 +1,32 @@
 package me.dje.graph;
 
-import java.util.Iterator;
-
-abstract public class GraphBuilder<V,E> implements Iterator<V> {
+/**
+ * Turns some other data into a Graph, numbering its items as vertices and
+ * adding an edge for each pair which is connected.
+ * @author dylan
+ *
+ */
+abstract public class GraphBuilder {
 
 	/**
-	 * 
-	 * @param v The Vertex to be built
-	 * @param set The set of previous vertices
+	 * Get the number of vertices the graph will have.
+	 * @return The number of vertices
 	 */
-	abstract public void build(Vertex<V,E> v, Iterator<Vertex<V,E>> set);
-	
-
-	public boolean hasNext() {
-		return false;
-	}
+	abstract public int getVertexCount();
 
-	public V next() {
-		return null;
-	}
+	/**
+	 * Add the edges to the graph.
+	 * @param graph A graph with getVertexCount() vertices and no edges
+	 */
+	abstract public void build(Graph graph);
 
-	public void remove() {			
+	/**
+	 * Build a new graph.
+	 * @return The graph
+	 */
+	public Graph build() {
+		Graph graph = new Graph(getVertexCount());
+		build(graph);
+		return graph;
 	}
 }
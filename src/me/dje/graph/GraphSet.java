@@ -1,20 +1,78 @@
 package me.dje.graph;
 
-import java.util.Vector;
-
 /**
- * This class is for constructing a set of connected graphs from arbitrary Edges.
+ * This class is for splitting a graph into its set of connected graphs. Each
+ * vertex is labelled with the number of the component holding it, and the
+ * components are numbered in the order of their lowest vertex.
  * @author dylan
  *
  */
-public class GraphSet<V,E> {
-	private Vector<Vertex<V,E>> allNodes;
-	public GraphSet(GraphBuilder<V,E> gb) {
-		allNodes = new Vector<Vertex<V,E>>();
-		while(gb.hasNext()) {
-			V data = gb.next();
-			Vertex<V,E> v = new Vertex<V,E>(data);
-			gb.build(v, allNodes.iterator());
+public class GraphSet {
+	private final int labels[];
+	private int sizes[];
+	private int count;
+
+	/**
+	 * Find the components of a graph.
+	 * @param graph The graph
+	 */
+	public GraphSet(Graph graph) {
+		int n = graph.getVertexCount();
+		DisjointSet set = new DisjointSet(n);
+		set.makeAll();
+		graph.union(set);
+
+		labels = new int[n];
+		sizes = new int[16];
+		count = 0;
+		for(int v = 0; v < n; v++)
+			labels[v] = -1;
+		for(int v = 0; v < n; v++) {
+			int root = set.find(v);
+			if(labels[root] < 0) {
+				if(count == sizes.length) {
+					int grown[] = new int[count * 2];
+					System.arraycopy(sizes, 0, grown, 0, count);
+					sizes = grown;
+				}
+				labels[root] = count;
+				sizes[count++] = set.size(root);
+			}
+			labels[v] = labels[root];
 		}
 	}
+
+	/**
+	 * Find the components of the graph made by a builder.
+	 * @param builder The builder
+	 */
+	public GraphSet(GraphBuilder builder) {
+		this(builder.build());
+	}
+
+	/**
+	 * Get the number of connected components.
+	 * @return The number of components
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the component holding a vertex.
+	 * @param v The vertex
+	 * @return The number of the component
+	 */
+	public int getLabel(int v) {
+		return labels[v];
+	}
+
+	/**
+	 * Get the number of vertices in a component.
+	 * @param label The number of the component
+	 * @return The number of vertices
+	 */
+	public int getSize(int label) {
+		return sizes[label];
+	}
 }
@@ -1,16 +0,0 @@
-package me.dje.graph;
-
-public class Vertex<V,E> {
-	
-	public Vertex(V v) {
-		
-	}
-	
-	public void addEdge(Vertex<V,E> v, E e) {
-		
-	}
-	
-	public void addDirectedEdge(Vertex<V,E> v, E e) {
-		
-	}
-}
@@ -20,43 +20,62 @@ public class AndroidTheme extends LifeBaseTheme {
 	private Bitmap android;
 	public AndroidTheme(Context context, CellularGrid grid) {
 		super(context, grid);
-		android = BitmapFactory.decodeResource(context.getResources(),
-				R.drawable.ic_android);
 	}
 
+	/**
+	 * Decode the icon if it has not been decoded since the theme was
+	 * created or released, before drawing.
+	 */
 	@Override
-	public void clear(Canvas c) {
-		
+	public void draw(Canvas c) {
+		if(android == null) {
+			android = BitmapFactory.decodeResource(context.getResources(),
+					R.drawable.ic_android);
+			invalidateSprites();
+		}
+		super.draw(c);
 	}
 
 	@Override
-	public void draw(Canvas c) { 
-		int cWidth = c.getWidth() / grid.getWidth();
-		for(int x = 0; x < grid.getWidth(); x++) {
-			for(int y = 0; y < grid.getHeight(); y++) {
-				Paint p;
-				if(((x & 1) == 1 && (y & 1) == 1) || (x & 1) != 1 && (y & 1) != 1) {
-					p = bgOddPaint;
-				} else {
-					p = bgEvenPaint;
-				}
-				c.drawRect(x * cWidth, y * cWidth, (x+1) * cWidth, (y+1) * cWidth, p);
-				if(grid.get(x, y)) {
-					Rect src = new Rect(0, 0, android.getWidth(), 
-							android.getHeight());
-					Rect dest = new Rect(x * cWidth, y * cWidth, (x+1) * cWidth, (y+1) * cWidth);
-					c.drawBitmap(android, src, dest, fgPaint);
-					
-				}
-			}
-		}
+	public void release() {
+		super.release();
+		if(android != null)
+			android.recycle();
+		android = null;
+	}
 
+	@Override
+	protected void drawCell(Canvas c, int x, int y, boolean alive, 
+			int cellSize) {
+		int sprite = ((x ^ y) & 1) << 1;
+		if(alive)
+			sprite |= 1;
+		drawSprite(c, sprite, x * cellSize, y * cellSize);
+	}
+	
+	/**
+	 * There are four sprites, the odd and even checker squares each with and
+	 * without an android. The icon is only scaled when the sprites are 
+	 * rendered.
+	 */
+	@Override
+	protected int getSpriteCount() {
+		return 4;
+	}
+	
+	@Override
+	protected void renderSprite(Canvas c, int sprite, Rect cell) {
+		c.drawRect(cell, (sprite & 2) == 0 ? bgOddPaint : bgEvenPaint);
+		if((sprite & 1) != 0) {
+			c.drawBitmap(android, null, cell, fgPaint);
+		}
 	}
 	
 	public void onSharedPreferenceChanged(SharedPreferences prefs, String opt) {
 		super.onSharedPreferenceChanged(prefs, opt);
 		
 		fgPaint = new Paint();
+		fgPaint.setFilterBitmap(true);
 		bgOddPaint = new Paint();
 		bgOddPaint.setColor(this.getBackground());
 		bgOddPaint.setAlpha(0xFF);
@@ -1,25 +1,104 @@
 package me.dje.life;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import me.dje.graph.GraphBuilder;
-import me.dje.graph.Vertex;
-import android.graphics.Point;
+import me.dje.graph.DisjointSet;
 
 /**
- * CellularGrid is the data model of Droid Life. It provides the engine for 
+ * CellularGrid is the data model of Droid Life. It provides the engine for
  * stepping through the cellular automation and provides the ruleset.
+ *
+ * Cells are stored bit-packed, one row at a time, in arrays of 64 bit words.
+ * The cell at column x of a row lives in word (x / 64) at bit (x % 64). A
+ * generation is computed a whole word at a time by adding the eight
+ * neighbour words together with bitwise full adders, so 64 cells share the
+ * cost of a single neighbour count. The sum is kept as four bit planes, so
+ * any LifeRule can be applied to all 64 cells with a handful of masks.
+ *
+ * The grid is also divided into tiles one word wide and TILE_HEIGHT rows
+ * tall. A tile is dirty when any of its cells changed in the last step, and
+ * a tile is only recalculated when it or one of its neighbours is dirty, so
+ * empty and settled areas of the board cost nothing to step.
+ *
+ * In parallel mode the rows of tiles are split into horizontal bands which
+ * are stepped on a shared pool of worker threads. Bands only read the
+ * current generation and write disjoint parts of the next one, so the
+ * result is identical to stepping serially.
+ *
+ * Generations rules and age tracking add a byte of state per cell. With a
+ * Generations rule the byte holds the cell state and an extra bit plane marks
+ * the dying cells, with age tracking it holds the number of generations since
+ * the cell was born. Only live and dying cells are visited to update states.
+ *
+ * In incremental mode the grid also keeps the number of live neighbours of
+ * every cell and a list of the cells which flipped in the last step. Only
+ * those cells and their neighbours can change, so each step evaluates just
+ * them and then adjusts the counts around the cells which flipped, making
+ * the cost of a step proportional to the births and deaths rather than the
+ * size of the board. Any change from outside a step, and rules or settings
+ * which need per-cell states, fall back to the word stepper, which rebuilds
+ * the counts afterwards.
  * @author dylan
  *
  */
 public class CellularGrid {
+	public static final int TILE_WIDTH = 64;
+	public static final int TILE_HEIGHT = 16;
+	/**
+	 * The number of generations in each band of ages. A cell only counts as
+	 * changed by growing older when its age moves into a new band, so themes
+	 * which shade cells by age band need not redraw every live cell on every
+	 * step.
+	 */
+	public static final int AGE_STEP = 32;
+	private static final int SNAPSHOT_MAGIC = 0x444C534E; // DLSN
+	private static final int SNAPSHOT_VERSION = 1;
 	private int width, height;
+	private int words;
+	private int lastBit;
+	private long lastMask;
 	private boolean wrap;
-	private boolean grid[], prev[];
-	private boolean changeMap[];
+	private long grid[], prev[];
+	private long changeMap[];
+	private int tilesX, tilesY;
+	private boolean dirty[], nextDirty[];
+	private List<Band> bands;
+	private long stepNext[];
+	private long generation;
+	private LifeRule rule;
+	private boolean conway;
+	private int ruleCounts[];
+	private long birthMasks[], survivalMasks[];
+	private byte states[];
+	private long dying[], prevDying[], stepDying[];
+	private boolean ageTracking;
+	private byte counts[];
+	private int flips[], nextFlips[], candidates[];
+	private int flipCount;
+	private long candidateMap[];
+	private boolean countsValid;
+	private long hash;
+	private boolean hashValid;
+	private long modifications;
+	private int population;
+	private boolean populationValid;
+	private int births, deaths, activeTiles;
+	private int rowBirths[], rowDeaths[], rowActive[];
 	private Random rand;
-	
+	private static ExecutorService workers;
+
 	/**
 	 * Create a grid with the given map file.
 	 * @param map
@@ -27,105 +106,694 @@ public class CellularGrid {
 	 * @param height
 	 * @param wrap
 	 */
-	public CellularGrid(CellularMapFile.Map map, int width, int height, 
+	public CellularGrid(CellularMapFile.Map map, int width, int height,
 			boolean wrap) {
-		this.width = width;
-		this.height = height;
-		this.prev = null;
-		this.grid = new boolean[width * height];
-		this.changeMap = new boolean[width * height];
-		this.wrap = wrap;
-		rand = new Random();
-		for(CellularMapFile.Point p : map) {
-			grid[(p.y * width) + p.x] = true;
+		this(width, height, wrap);
+		for(int i = 0; i < map.size(); i++) {
+			set(map.getX(i), map.getY(i));
 		}
 	}
-	
+
 	public CellularGrid(int width, int height, boolean wrap) {
 		this.width = width;
 		this.height = height;
+		this.words = (width + 63) >>> 6;
+		this.lastBit = (width - 1) & 63;
+		this.lastMask = -1L >>> (63 - lastBit);
 		this.prev = null;
-		this.grid = new boolean[width * height];
-		this.changeMap = new boolean[width * height];
+		this.grid = new long[words * height];
+		this.changeMap = new long[words * height];
+		this.tilesX = words;
+		this.tilesY = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+		this.dirty = new boolean[tilesX * tilesY];
+		this.nextDirty = new boolean[tilesX * tilesY];
+		Arrays.fill(dirty, true);
+		this.rowBirths = new int[tilesY];
+		this.rowDeaths = new int[tilesY];
+		this.rowActive = new int[tilesY];
 		rand = new Random();
 		this.wrap = wrap;
+		setRule(LifeRule.CONWAY);
 	}
-	
+
 	public CellularGrid(int width, int height) {
 		this(width, height, true);
 	}
-	
+
+	/**
+	 * Create a copy of a grid. A grid of the same size is copied exactly, a
+	 * grid of the transposed size is rotated, and otherwise the part of the
+	 * grid which fits is copied. The copy keeps the generation, rule and
+	 * settings of the original.
+	 * @param width The width of the new grid
+	 * @param height The height of the new grid
+	 * @param map The grid to copy
+	 */
 	public CellularGrid(int width, int height, CellularGrid map) {
-		this(width, height);
-		
+		this(width, height, map.wrap);
+		setRule(map.rule);
+		setAgeTracking(map.ageTracking);
+		this.generation = map.generation;
+
 		if(map.width == this.width && map.height == this.height) {
 			// Copy
-			for(int i = 0; i < grid.length; i++) grid[i] = map.grid[i];
+			System.arraycopy(map.grid, 0, grid, 0, grid.length);
+			if(states != null)
+				System.arraycopy(map.states, 0, states, 0, states.length);
+			if(dying != null)
+				System.arraycopy(map.dying, 0, dying, 0, dying.length);
 		} else if(map.width == this.height && map.height == this.width) {
 			// Rotate
 			for(int x = 0; x < this.width; x++) {
 				for(int y = 0; y < this.height; y++) {
-					grid[(y * height) + x] = map.grid[(x * width) + y];
+					if(map.get(y, x))
+						set(x, y);
 				}
 			}
+		} else {
+			// Crop or pad
+			int w = Math.min(words, map.words);
+			for(int y = 0; y < Math.min(height, map.height); y++) {
+				System.arraycopy(map.grid, y * map.words, grid, y * words, w);
+				if(width < map.width)
+					grid[(y * words) + words - 1] &= lastMask;
+			}
+			resetStates();
 		}
 	}
-	
-	private int calculate_value(int x, int y) {
-		int val = 0;
-		for(int xm = -1; xm < 2; xm++) {
-			for(int ym = -1; ym < 2; ym++) {
+
+	/**
+	 * Get the bit carried into the low end of a word when a row is shifted
+	 * west, which is the cell to the left of the first cell in the word.
+	 * @param offset The offset of the row, or -1 for an empty row
+	 * @param w The index of the word in the row
+	 * @return The carry bit at position 0
+	 */
+	private long westCarry(int offset, int w) {
+		if(offset < 0)
+			return 0;
+		if(w > 0)
+			return grid[offset + w - 1] >>> 63;
+		return wrap ? (grid[offset + words - 1] >>> lastBit) & 1L : 0;
+	}
+
+	/**
+	 * Get the bit carried into the high end of a word when a row is shifted
+	 * east, which is the cell to the right of the last cell in the word.
+	 * @param offset The offset of the row, or -1 for an empty row
+	 * @param w The index of the word in the row
+	 * @return The carry bit at the position of the last cell in the word
+	 */
+	private long eastCarry(int offset, int w) {
+		if(offset < 0)
+			return 0;
+		if(w < words - 1)
+			return grid[offset + w + 1] << 63;
+		return wrap ? (grid[offset] & 1L) << lastBit : 0;
+	}
+
+	/**
+	 * Get the offset of a row, applying the wrap setting.
+	 * @param y The row, which may be one beyond either edge
+	 * @return The offset of the row or -1 if it is off the grid
+	 */
+	private int rowOffset(int y) {
+		if(y < 0)
+			return wrap ? (height - 1) * words : -1;
+		if(y >= height)
+			return wrap ? 0 : -1;
+		return y * words;
+	}
+
+	/**
+	 * Calculate the next generation for a single word of the grid.
+	 * @param y The row of the word
+	 * @param w The index of the word in the row
+	 * @param next The array receiving the next generation
+	 * @return The cells of the word which changed
+	 */
+	private long stepWord(int y, int w, long next[]) {
+		int co = y * words;
+		int ao = rowOffset(y - 1);
+		int bo = rowOffset(y + 1);
+
+		long a = (ao < 0) ? 0 : grid[ao + w];
+		long c = grid[co + w];
+		long b = (bo < 0) ? 0 : grid[bo + w];
+		long aw = (a << 1) | westCarry(ao, w);
+		long ae = (a >>> 1) | eastCarry(ao, w);
+		long cw = (c << 1) | westCarry(co, w);
+		long ce = (c >>> 1) | eastCarry(co, w);
+		long bw = (b << 1) | westCarry(bo, w);
+		long be = (b >>> 1) | eastCarry(bo, w);
+
+		// Add each row of three, then the three partial sums
+		long a1 = aw ^ a ^ ae;
+		long a2 = (aw & a) | (ae & (aw ^ a));
+		long b1 = bw ^ b ^ be;
+		long b2 = (bw & b) | (be & (bw ^ b));
+		long c1 = cw ^ ce;
+		long c2 = cw & ce;
+
+		long s0 = a1 ^ b1 ^ c1;
+		long k = (a1 & b1) | (c1 & (a1 ^ b1));
+		long x = a2 ^ b2 ^ c2;
+		long s1 = x ^ k;
+		long y4 = (a2 & b2) | (c2 & (a2 ^ b2));
+		long z4 = x & k;
+		long s2 = y4 ^ z4;
+
+		long n;
+		if(conway) {
+			// Born with 3, survive with 2 or 3
+			n = s1 & ~s2 & (s0 | c);
+		} else {
+			long s3 = y4 & z4;
+			n = 0;
+			for(int i = 0; i < ruleCounts.length; i++) {
+				int r = ruleCounts[i];
+				long eq = (((r & 1) != 0) ? s0 : ~s0)
+						& (((r & 2) != 0) ? s1 : ~s1)
+						& (((r & 4) != 0) ? s2 : ~s2)
+						& (((r & 8) != 0) ? s3 : ~s3);
+				n |= eq & ((birthMasks[r] & ~c) | (survivalMasks[r] & c));
+			}
+		}
+		long d = 0;
+		if(dying != null) {
+			// Dying cells can not be born again
+			d = dying[co + w];
+			n &= ~d;
+		}
+		if(w == words - 1)
+			n &= lastMask;
+		next[co + w] = n;
+		long changes = n ^ c;
+		changeMap[co + w] = changes;
+		if(states != null)
+			changes |= stepStates(co + w, y, w, c, n, d);
+		return changes;
+	}
+
+	/**
+	 * Update the per-cell states of a word after it has been stepped. Ages
+	 * are only flagged in the change map when they move into a new band of
+	 * AGE_STEP, but every ageing cell keeps its tile stepping.
+	 * @param i The index of the word
+	 * @param y The row of the word
+	 * @param w The index of the word in the row
+	 * @param c The live cells before the step
+	 * @param n The live cells after the step
+	 * @param d The dying cells before the step
+	 * @return The cells whose state changed while staying alive or dead
+	 */
+	private long stepStates(int i, int y, int w, long c, long n, long d) {
+		int base = (y * width) + (w << 6);
+		long bits;
+		for(bits = n & ~c; bits != 0; bits &= bits - 1)
+			states[base + Long.numberOfTrailingZeros(bits)] = 1;
+
+		if(dying != null) {
+			int count = rule.getStates();
+			long newly = c & ~n;
+			long nd = newly;
+			for(bits = d; bits != 0; bits &= bits - 1) {
+				int b = Long.numberOfTrailingZeros(bits);
+				int s = (states[base + b] & 0xFF) + 1;
+				if(s < count) {
+					states[base + b] = (byte)s;
+					nd |= 1L << b;
+				} else {
+					states[base + b] = 0;
+				}
+			}
+			for(bits = newly; bits != 0; bits &= bits - 1)
+				states[base + Long.numberOfTrailingZeros(bits)] = 2;
+			stepDying[i] = nd;
+			// Every dying cell moves on to another state
+			changeMap[i] |= d;
+			return d;
+		}
+
+		long changes = 0, bands = 0;
+		for(bits = c & ~n; bits != 0; bits &= bits - 1)
+			states[base + Long.numberOfTrailingZeros(bits)] = 0;
+		for(bits = c & n; bits != 0; bits &= bits - 1) {
+			int b = Long.numberOfTrailingZeros(bits);
+			int s = states[base + b] & 0xFF;
+			if(s != 0xFF) {
+				states[base + b] = (byte)(s + 1);
+				changes |= 1L << b;
+				if((s % AGE_STEP) == 0)
+					bands |= 1L << b;
+			}
+		}
+		changeMap[i] |= bands;
+		return changes;
+	}
+
+	/**
+	 * Calculate the next generation for every word of a tile.
+	 * @param tx The horizontal tile index
+	 * @param ty The vertical tile index
+	 * @param next The array receiving the next generation
+	 * @return True if any cell in the tile changed
+	 */
+	private boolean stepTile(int tx, int ty, long next[]) {
+		long changes = 0;
+		int end = Math.min(height, (ty + 1) * TILE_HEIGHT);
+		for(int y = ty * TILE_HEIGHT; y < end; y++) {
+			long c = stepWord(y, tx, next);
+			if(c != 0) {
+				// Count the births and deaths while the words are at hand
+				int i = (y * words) + tx;
+				rowBirths[ty] += Long.bitCount(next[i] & ~grid[i]);
+				rowDeaths[ty] += Long.bitCount(grid[i] & ~next[i]);
+				changes |= c;
+			}
+		}
+		return changes != 0;
+	}
+
+	/**
+	 * Determine whether a tile needs to be recalculated, which is the case
+	 * if it or any of the tiles around it are dirty.
+	 * @param tx The horizontal tile index
+	 * @param ty The vertical tile index
+	 * @return True if the tile may change in the next step
+	 */
+	private boolean tileActive(int tx, int ty) {
+		for(int ym = -1; ym < 2; ym++) {
+			int yp = ty + ym;
+			if(yp < 0 || yp >= tilesY) {
+				if(!wrap) continue;
+				yp = (yp < 0) ? tilesY - 1 : 0;
+			}
+			for(int xm = -1; xm < 2; xm++) {
+				int xp = tx + xm;
+				if(xp < 0 || xp >= tilesX) {
+					if(!wrap) continue;
+					xp = (xp < 0) ? tilesX - 1 : 0;
+				}
+				if(dirty[(yp * tilesX) + xp])
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Flag the tile containing a cell as dirty.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 */
+	private void markDirty(int x, int y) {
+		dirty[((y / TILE_HEIGHT) * tilesX) + (x >>> 6)] = true;
+		modifications++;
+		countsValid = false;
+		hashValid = false;
+		populationValid = false;
+	}
+
+	/**
+	 * Calculate the next generation for a band of tile rows.
+	 * @param ty0 The first tile row
+	 * @param ty1 The tile row after the last
+	 * @param next The array receiving the next generation
+	 */
+	private void stepBand(int ty0, int ty1, long next[]) {
+		// A clean tile with clean neighbours is identical in both buffers,
+		// so skipping it leaves the right cells in the next generation.
+		// The counts are kept per tile row, so bands never share them
+		for(int ty = ty0; ty < ty1; ty++) {
+			rowBirths[ty] = 0;
+			rowDeaths[ty] = 0;
+			int active = 0;
+			for(int tx = 0; tx < tilesX; tx++) {
+				int i = (ty * tilesX) + tx;
+				nextDirty[i] = tileActive(tx, ty) && stepTile(tx, ty, next);
+				if(nextDirty[i])
+					active++;
+			}
+			rowActive[ty] = active;
+		}
+	}
+
+	/**
+	 * Calculate the next generation with every band on the worker pool. An
+	 * interrupt of the calling thread does not cancel the bands, as states
+	 * are updated in place and a band can not safely be stepped twice. The
+	 * step waits for every band to finish and the interrupt is set again
+	 * afterwards, so the grid is never left half stepped.
+	 * @param next The array receiving the next generation
+	 */
+	private void stepParallel(long next[]) {
+		stepNext = next;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(
+				bands.size());
+		for(Band band : bands)
+			futures.add(workers.submit(band));
+		boolean interrupted = false;
+		Throwable failure = null;
+		for(Future<Void> f : futures) {
+			while(true) {
+				try {
+					f.get();
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+				} catch(ExecutionException e) {
+					failure = e.getCause();
+					break;
+				}
+			}
+		}
+		stepNext = null;
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	/**
+	 * A horizontal band of tile rows which is stepped as a single task.
+	 */
+	private class Band implements Callable<Void> {
+		private final int ty0, ty1;
+
+		Band(int ty0, int ty1) {
+			this.ty0 = ty0;
+			this.ty1 = ty1;
+		}
+
+		public Void call() {
+			stepBand(ty0, ty1, stepNext);
+			return null;
+		}
+	}
+
+	/**
+	 * Get the shared pool of worker threads, creating it on first use. The
+	 * pool has one daemon thread per processor and lives as long as the
+	 * process.
+	 * @return The worker pool
+	 */
+	private static synchronized ExecutorService getWorkers() {
+		if(workers == null) {
+			workers = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "CellularGrid worker");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return workers;
+	}
+
+	/**
+	 * Switch between stepping on the calling thread and stepping in bands
+	 * on the worker pool. Parallel mode only pays off for large grids, so
+	 * grids too small to split are always stepped serially.
+	 * @param parallel True to step in parallel
+	 */
+	public void setParallel(boolean parallel) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int count = Math.min(tilesY, threads * 2);
+		if(!parallel || threads < 2 || count < 2) {
+			bands = null;
+			return;
+		}
+		getWorkers();
+		bands = new ArrayList<Band>(count);
+		for(int i = 0; i < count; i++) {
+			bands.add(new Band((i * tilesY) / count,
+					((i + 1) * tilesY) / count));
+		}
+	}
+
+	/**
+	 * Determine whether the grid is stepped in parallel.
+	 * @return True if the grid is stepped on the worker pool
+	 */
+	public boolean isParallel() {
+		return bands != null;
+	}
+
+	/**
+	 * Switch incremental stepping on or off. Incremental mode costs a byte
+	 * per cell for the neighbour counts and is only used for rules with two
+	 * states and without age tracking. It is always serial.
+	 * @param incremental True to step incrementally
+	 */
+	public void setIncremental(boolean incremental) {
+		if(!incremental) {
+			counts = null;
+			candidateMap = null;
+			flips = nextFlips = candidates = null;
+		} else if(counts == null) {
+			counts = new byte[width * height];
+			candidateMap = new long[words * height];
+			flips = new int[64];
+			nextFlips = new int[64];
+			candidates = new int[64];
+		}
+		countsValid = false;
+	}
+
+	/**
+	 * Determine whether the grid is stepped incrementally.
+	 * @return True if neighbour counts are kept between steps
+	 */
+	public boolean isIncremental() {
+		return counts != null;
+	}
+
+	/**
+	 * Change whether the edges of the grid wrap around.
+	 * @param wrap True to wrap
+	 */
+	public void setWrap(boolean wrap) {
+		if(wrap == this.wrap)
+			return;
+		this.wrap = wrap;
+		Arrays.fill(dirty, true);
+		countsValid = false;
+	}
+
+	/**
+	 * Determine whether the edges of the grid wrap around.
+	 * @return True if the grid wraps
+	 */
+	public boolean isWrap() {
+		return wrap;
+	}
+
+	/**
+	 * Add a value to the end of a list, growing the array if it is full.
+	 * @param list The array holding the list
+	 * @param n The length of the list
+	 * @param value The value to add
+	 * @return The array holding the list, which may be a new array
+	 */
+	private static int[] append(int list[], int n, int value) {
+		if(n == list.length) {
+			int grown[] = new int[n << 1];
+			System.arraycopy(list, 0, grown, 0, n);
+			list = grown;
+		}
+		list[n] = value;
+		return list;
+	}
+
+	/**
+	 * Add to the neighbour counts of the cells around a cell.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @param delta 1 for a birth or -1 for a death
+	 */
+	private void addNeighbours(int x, int y, int delta) {
+		for(int ym = -1; ym < 2; ym++) {
+			int yp = y + ym;
+			if(yp < 0 || yp >= height) {
+				if(!wrap) continue;
+				yp = (yp < 0) ? height - 1 : 0;
+			}
+			for(int xm = -1; xm < 2; xm++) {
 				int xp = x + xm;
+				if(xp < 0 || xp >= width) {
+					if(!wrap) continue;
+					xp = (xp < 0) ? width - 1 : 0;
+				}
+				if(xm != 0 || ym != 0)
+					counts[(yp * width) + xp] += delta;
+			}
+		}
+	}
+
+	/**
+	 * Recount the neighbours of every cell and collect the cells which
+	 * flipped in the last step, so the next step can be incremental.
+	 */
+	private void rebuildCounts() {
+		Arrays.fill(counts, (byte)0);
+		flipCount = 0;
+		for(int y = 0; y < height; y++) {
+			for(int w = 0; w < words; w++) {
+				int i = (y * words) + w;
+				long bits;
+				for(bits = grid[i]; bits != 0; bits &= bits - 1)
+					addNeighbours((w << 6) + Long.numberOfTrailingZeros(bits),
+							y, 1);
+				for(bits = changeMap[i]; bits != 0; bits &= bits - 1)
+					flips = append(flips, flipCount++, (y * width) 
+							+ (w << 6) + Long.numberOfTrailingZeros(bits));
+			}
+		}
+		countsValid = true;
+	}
+
+	/**
+	 * Step by evaluating only the cells around the cells which flipped in the
+	 * last step. A cell whose own value and neighbour count did not change
+	 * last time can not change this time either.
+	 */
+	private void stepIncremental() {
+		int n = 0;
+		for(int f = 0; f < flipCount; f++) {
+			int x = flips[f] % width;
+			int y = flips[f] / width;
+			for(int ym = -1; ym < 2; ym++) {
 				int yp = y + ym;
-				if(wrap) {
-					if(xp < 0) xp = this.width + xm;
-					else if(xp >= this.width) xp = xm;
-					if(yp < 0) yp = this.height + ym;
-					else if(yp >= this.height) yp = ym;
+				if(yp < 0 || yp >= height) {
+					if(!wrap) continue;
+					yp = (yp < 0) ? height - 1 : 0;
+				}
+				for(int xm = -1; xm < 2; xm++) {
+					int xp = x + xm;
+					if(xp < 0 || xp >= width) {
+						if(!wrap) continue;
+						xp = (xp < 0) ? width - 1 : 0;
+					}
+					int w = (yp * words) + (xp >>> 6);
+					if((candidateMap[w] & (1L << xp)) == 0) {
+						candidateMap[w] |= 1L << xp;
+						candidates = append(candidates, n++, 
+								(yp * width) + xp);
+					}
 				}
-				if( (xm != 0 || ym != 0)
-						&& xp >= 0 && xp < this.width
-						&& yp >= 0 && yp < this.height
-						&& grid[(yp * width) + xp])
-					val++;	
 			}
 		}
-		return val;
+
+		// Evaluate every candidate before any cell is flipped
+		int next = 0;
+		for(int c = 0; c < n; c++) {
+			int i = candidates[c];
+			int x = i % width;
+			int w = ((i / width) * words) + (x >>> 6);
+			candidateMap[w] = 0;
+			boolean alive = ((grid[w] >>> x) & 1L) != 0;
+			if(rule.next(alive, counts[i]) != alive)
+				nextFlips = append(nextFlips, next++, i);
+		}
+
+		for(int f = 0; f < flipCount; f++) {
+			int x = flips[f] % width;
+			int y = flips[f] / width;
+			changeMap[(y * words) + (x >>> 6)] = 0;
+			dirty[((y / TILE_HEIGHT) * tilesX) + (x >>> 6)] = false;
+		}
+		births = 0;
+		activeTiles = 0;
+		for(int f = 0; f < next; f++) {
+			int x = nextFlips[f] % width;
+			int y = nextFlips[f] / width;
+			int w = (y * words) + (x >>> 6);
+			int t = ((y / TILE_HEIGHT) * tilesX) + (x >>> 6);
+			grid[w] ^= 1L << x;
+			changeMap[w] |= 1L << x;
+			if(!dirty[t]) {
+				dirty[t] = true;
+				activeTiles++;
+			}
+			boolean alive = ((grid[w] >>> x) & 1L) != 0;
+			if(alive)
+				births++;
+			addNeighbours(x, y, alive ? 1 : -1);
+		}
+		deaths = next - births;
+		int swap[] = flips;
+		flips = nextFlips;
+		nextFlips = swap;
+		flipCount = next;
+		// The grid was changed in place, so there is no previous generation
+		this.prev = null;
 	}
-	
+
 	/**
 	 * Step to the next frame in the simulation.
 	 */
 	public void step() {
-		boolean next[];
-		if(this.prev == null)
-			next = new boolean[width * height];
-		else
-			next = this.prev;
+		if(countsValid && states == null) {
+			stepIncremental();
+		} else {
+			stepWords();
+			if(counts != null && states == null)
+				rebuildCounts();
+		}
+		if(populationValid)
+			population += births - deaths;
+		if(hashValid)
+			updateHash();
+		this.generation++;
+	}
 
-		int flipper = 0;
-		for(int x = 0; x < width; x++) {
-			for(int y = 0; y < height; y++) {
-				int val = calculate_value(x, y);
-				changeMap[(y * width) + x] = false;
-				if(val == 3) {
-					next[(y * width) + x] = true;
-					if(!grid[(y * width) + x]) 
-						changeMap[(y * width) + x] = true;
-				} else if(val < 2 || val > 3) {
-					next[(y * width) + x] = false;
-					if(grid[(y * width) + x]) 
-						changeMap[(y * width) + x] = true;
-				} else {
-					next[(y * width) + x] = grid[(y * width) + x];
-				}
+	/**
+	 * Step every word of the active tiles with the bitwise adders.
+	 */
+	private void stepWords() {
+		long next[];
+		if(this.prev == null) {
+			// Nothing can be skipped without a previous generation
+			next = new long[words * height];
+			Arrays.fill(dirty, true);
+		} else {
+			next = this.prev;
+		}
+		if(dying != null) {
+			if(prevDying == null) {
+				prevDying = new long[words * height];
+				Arrays.fill(dirty, true);
 			}
-			
+			stepDying = prevDying;
+		}
+
+		if(bands != null)
+			stepParallel(next);
+		else
+			stepBand(0, tilesY, next);
+		births = 0;
+		deaths = 0;
+		activeTiles = 0;
+		for(int ty = 0; ty < tilesY; ty++) {
+			births += rowBirths[ty];
+			deaths += rowDeaths[ty];
+			activeTiles += rowActive[ty];
 		}
+		boolean swap[] = this.dirty;
+		this.dirty = this.nextDirty;
+		this.nextDirty = swap;
 		this.prev = this.grid;
 		this.grid = next;
+		if(dying != null) {
+			this.prevDying = this.dying;
+			this.dying = this.stepDying;
+			this.stepDying = null;
+		}
 	}
-	
+
 	/**
 	 * Step ahead a specified number of times.
 	 * @param n The number of steps
@@ -134,16 +802,25 @@ public class CellularGrid {
 		for(int i = 0; i < n; i++)
 			step();
 	}
-	
+
 	/**
 	 * Randomize the whole grid.
 	 */
 	public void randomize() {
-		for(int i = 0; i < grid.length; i++) {
-			grid[i] = rand.nextBoolean();
+		for(int y = 0; y < height; y++) {
+			for(int w = 0; w < words; w++) {
+				long r = rand.nextLong();
+				grid[(y * words) + w] = (w == words - 1) ? r & lastMask : r;
+			}
 		}
+		resetStates();
+		Arrays.fill(dirty, true);
+		modifications++;
+		countsValid = false;
+		hashValid = false;
+		populationValid = false;
 	}
-	
+
 	/**
 	 * Get the status of the specified cell.
 	 * @param x The horizontal position
@@ -151,48 +828,449 @@ public class CellularGrid {
 	 * @return The value of the cell
 	 */
 	public boolean get(int x, int y) {
-		return grid[(y * width) + x];
+		return ((grid[(y * words) + (x >>> 6)] >>> x) & 1L) != 0;
 	}
-	
+
+	/**
+	 * Get the state of the specified cell. With a Generations rule this is
+	 * the state number, 0 for dead, 1 for alive and higher for dying. With
+	 * age tracking it is the number of generations since the cell was born,
+	 * up to 255, or 0 for a dead cell. Otherwise it is 1 or 0.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @return The state of the cell
+	 */
+	public int getState(int x, int y) {
+		if(states == null)
+			return get(x, y) ? 1 : 0;
+		return states[(y * width) + x] & 0xFF;
+	}
+
 	/**
-	 * Determine if a cell changed in the last step.
+	 * Determine if a cell changed in the last step. Cells which changed
+	 * state, including ageing or dying, count as changed.
 	 * @param x The horizontal position
 	 * @param y The vertical position
 	 * @return True if the cell has changed
 	 */
 	public boolean changed(int x, int y) {
-		return changeMap[(y * width) + x];
+		return ((changeMap[(y * words) + (x >>> 6)] >>> x) & 1L) != 0;
 	}
-	
+
 	/**
 	 * Set the cell at the specified coordinate.
 	 * @param x The horizontal postion
 	 * @param y The vertical position
 	 */
 	public void set(int x, int y) {
-		if(x >= 0 && x < width && y >= 0 && y < height)
-			grid[(y * width) + x] = true;
+		if(x >= 0 && x < width && y >= 0 && y < height) {
+			grid[(y * words) + (x >>> 6)] |= 1L << x;
+			setState(x, y, true);
+			markDirty(x, y);
+		}
+	}
+
+	/**
+	 * Set a run of cells in a row, a word at a time. Cells beyond the edges
+	 * of the grid are ignored.
+	 * @param x The horizontal position of the first cell
+	 * @param y The vertical position
+	 * @param length The number of cells
+	 */
+	public void setRun(int x, int y, int length) {
+		if(y < 0 || y >= height || length <= 0)
+			return;
+		int end = (int)Math.min((long)x + length, width);
+		if(x < 0)
+			x = 0;
+		if(x >= end)
+			return;
+		int offset = y * words;
+		for(int w = x >>> 6; w <= (end - 1) >>> 6; w++) {
+			int lo = Math.max(x, w << 6) & 63;
+			int hi = Math.min(end, (w + 1) << 6) - (w << 6);
+			grid[offset + w] |= (-1L << lo) & (-1L >>> (64 - hi));
+			dirty[((y / TILE_HEIGHT) * tilesX) + w] = true;
+		}
+		if(states != null || dying != null) {
+			for(int xp = x; xp < end; xp++)
+				setState(xp, y, true);
+		}
+		modifications++;
+		countsValid = false;
+		hashValid = false;
+		populationValid = false;
+	}
+
+	/**
+	 * Set the state of a cell to match a change from outside of a step.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @param alive The new value of the cell
+	 */
+	private void setState(int x, int y, boolean alive) {
+		if(states != null)
+			states[(y * width) + x] = (byte)(alive ? 1 : 0);
+		if(dying != null)
+			dying[(y * words) + (x >>> 6)] &= ~(1L << x);
 	}
-	
+
 	/**
 	 * Randomly set a square section of the grid. This is for implementing a
 	 * touch based interface.
 	 * @param x The horizontal centre position
 	 * @param y The vertical centre position
 	 * @param r The width of the square
-	 * @deprecated Needs to be changed to a more appropriate name.
+	 * @deprecated Use scatter() instead.
 	 */
+	@Deprecated
 	public void set(int x, int y, int r) {
+		scatter(x, y, r);
+	}
+
+	/**
+	 * Randomly set a square section of the grid, with the centre cell always
+	 * alive. This is for implementing a touch based interface.
+	 * @param x The horizontal centre position
+	 * @param y The vertical centre position
+	 * @param r Half the width of the square
+	 */
+	public void scatter(int x, int y, int r) {
 		for(int xp = x - r; xp < x + r; xp++) {
 			for(int yp = y - r; yp < y + r; yp++) {
-				if(xp >= 0 && xp < width && yp >= 0 && yp < height)
-					grid[(yp * width) + xp] = this.rand.nextBoolean();
-
+				if(xp >= 0 && xp < width && yp >= 0 && yp < height) {
+					int i = (yp * words) + (xp >>> 6);
+					boolean alive = this.rand.nextBoolean();
+					if(alive)
+						grid[i] |= 1L << xp;
+					else
+						grid[i] &= ~(1L << xp);
+					setState(xp, yp, alive);
+					markDirty(xp, yp);
+				}
 			}
 		}
 		set(x, y);
 	}
-	
+
+	/**
+	 * Copy the packed cells of the grid into an array, one row after another
+	 * with each row padded to a whole number of words.
+	 * @param dest The array to copy into, may be null
+	 * @return The array holding the copy, which is a new array if dest was
+	 * null or the wrong size
+	 */
+	public long[] snapshot(long dest[]) {
+		if(dest == null || dest.length != grid.length)
+			dest = new long[grid.length];
+		System.arraycopy(grid, 0, dest, 0, grid.length);
+		return dest;
+	}
+
+	/**
+	 * Copy the per-cell states of the grid into an array.
+	 * @param dest The array to copy into, may be null
+	 * @return The array holding the copy, which is a new array if dest was
+	 * null or the wrong size, or null if the grid has no states
+	 */
+	public byte[] snapshotStates(byte dest[]) {
+		if(states == null)
+			return null;
+		if(dest == null || dest.length != states.length)
+			dest = new byte[states.length];
+		System.arraycopy(states, 0, dest, 0, states.length);
+		return dest;
+	}
+
+	/**
+	 * Write the whole grid into a buffer: the size, settings, generation and
+	 * rule followed by the packed rows and any per-cell states. The rows are
+	 * copied in bulk, so a snapshot is little more than a copy of the grid.
+	 * @param dest A buffer to reuse, may be null
+	 * @return The buffer holding the snapshot, flipped ready for reading,
+	 * which is a new buffer if dest was null or too small
+	 */
+	public ByteBuffer writeSnapshot(ByteBuffer dest) {
+		byte name[] = rule.toString().getBytes();
+		int size = 32 + name.length + (grid.length * 8)
+				+ ((states == null) ? 0 : states.length);
+		if(dest == null || dest.capacity() < size)
+			dest = ByteBuffer.allocate(size);
+		dest.clear();
+		dest.putInt(SNAPSHOT_MAGIC);
+		dest.putInt(SNAPSHOT_VERSION);
+		dest.putInt(width);
+		dest.putInt(height);
+		dest.put((byte)(wrap ? 1 : 0));
+		dest.put((byte)(ageTracking ? 1 : 0));
+		dest.putLong(generation);
+		dest.putShort((short)name.length);
+		dest.put(name);
+		dest.asLongBuffer().put(grid);
+		dest.position(dest.position() + (grid.length * 8));
+		if(states == null) {
+			dest.putInt(0);
+		} else {
+			dest.putInt(states.length);
+			dest.put(states);
+		}
+		dest.flip();
+		return dest;
+	}
+
+	/**
+	 * Create a grid from a snapshot written by writeSnapshot().
+	 * @param src The buffer holding the snapshot
+	 * @return The grid
+	 * @throws IOException If the buffer does not hold a valid snapshot
+	 */
+	public static CellularGrid readSnapshot(ByteBuffer src) 
+			throws IOException {
+		try {
+			if(src.getInt() != SNAPSHOT_MAGIC 
+					|| src.getInt() != SNAPSHOT_VERSION)
+				throw new IOException("Not a grid snapshot");
+			int width = src.getInt();
+			int height = src.getInt();
+			if(width < 1 || height < 1 
+					|| (long)width * height > src.remaining() * 8L)
+				throw new IOException("Bad grid size");
+			boolean wrap = src.get() != 0;
+			boolean ageTracking = src.get() != 0;
+			long generation = src.getLong();
+			byte name[] = new byte[src.getShort() & 0xFFFF];
+			src.get(name);
+
+			CellularGrid g = new CellularGrid(width, height, wrap);
+			g.setRule(LifeRule.parse(new String(name, "US-ASCII")));
+			g.setAgeTracking(ageTracking);
+			src.asLongBuffer().get(g.grid);
+			src.position(src.position() + (g.grid.length * 8));
+			for(int y = 0; y < height; y++)
+				g.grid[(y * g.words) + g.words - 1] &= g.lastMask;
+			int n = src.getInt();
+			if(g.states != null && n == g.states.length) {
+				src.get(g.states);
+				g.rebuildDying();
+			} else {
+				g.resetStates();
+			}
+			g.generation = generation;
+			return g;
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Damaged grid snapshot");
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Bad rule in grid snapshot");
+		}
+	}
+
+	/**
+	 * Replace the cells of the grid with a snapshot. Cells which differ from
+	 * the current ones are flagged as changed, so themes redraw exactly the
+	 * cells which are different even when generations were skipped.
+	 * @param cells The packed cells, as returned by snapshot
+	 * @param cellStates The states, as returned by snapshotStates, or null
+	 * @param generation The generation of the snapshot
+	 */
+	public void load(long cells[], byte cellStates[], long generation) {
+		boolean copyStates = states != null && cellStates != null;
+		births = 0;
+		deaths = 0;
+		activeTiles = 0;
+		for(int ty = 0; ty < tilesY; ty++) {
+			int end = Math.min(height, (ty + 1) * TILE_HEIGHT);
+			for(int tx = 0; tx < tilesX; tx++) {
+				long changes = 0;
+				for(int y = ty * TILE_HEIGHT; y < end; y++) {
+					int i = (y * words) + tx;
+					long diff = grid[i] ^ cells[i];
+					if(copyStates)
+						diff |= stateChanges(cellStates, y, tx);
+					if(diff != 0) {
+						births += Long.bitCount(cells[i] & ~grid[i]);
+						deaths += Long.bitCount(grid[i] & ~cells[i]);
+					}
+					changeMap[i] = diff;
+					grid[i] = cells[i];
+					changes |= diff;
+				}
+				dirty[(ty * tilesX) + tx] = changes != 0;
+				if(changes != 0)
+					activeTiles++;
+			}
+		}
+		if(populationValid)
+			population += births - deaths;
+		if(copyStates) {
+			System.arraycopy(cellStates, 0, states, 0, states.length);
+		} else {
+			resetStates();
+		}
+		rebuildDying();
+		// The previous generation no longer matches clean tiles
+		this.prev = null;
+		this.prevDying = null;
+		this.countsValid = false;
+		this.hashValid = false;
+		this.generation = generation;
+	}
+
+	public void load(long cells[], long generation) {
+		load(cells, null, generation);
+	}
+
+	/**
+	 * Compare the states of a word against another set of states. Ages only
+	 * differ when they are in different bands of AGE_STEP, as in a step.
+	 * @return The cells of the word whose states differ
+	 */
+	private long stateChanges(byte other[], int y, int w) {
+		int base = (y * width) + (w << 6);
+		int end = Math.min(64, width - (w << 6));
+		long diff = 0;
+		if(dying == null) {
+			for(int b = 0; b < end; b++) {
+				if(((states[base + b] & 0xFF) - 1) / AGE_STEP
+						!= ((other[base + b] & 0xFF) - 1) / AGE_STEP)
+					diff |= 1L << b;
+			}
+			return diff;
+		}
+		for(int b = 0; b < end; b++) {
+			if(states[base + b] != other[base + b])
+				diff |= 1L << b;
+		}
+		return diff;
+	}
+
+	/**
+	 * Rebuild the dying bit plane from the per-cell states.
+	 */
+	private void rebuildDying() {
+		if(dying == null)
+			return;
+		for(int y = 0; y < height; y++) {
+			for(int w = 0; w < words; w++) {
+				dying[(y * words) + w] = stateBits(y, w, 2);
+			}
+		}
+	}
+
+	/**
+	 * Build a word with the cells whose state is at least a given value.
+	 */
+	private long stateBits(int y, int w, int min) {
+		int base = (y * width) + (w << 6);
+		int end = Math.min(64, width - (w << 6));
+		long bits = 0;
+		for(int b = 0; b < end; b++) {
+			if((states[base + b] & 0xFF) >= min)
+				bits |= 1L << b;
+		}
+		return bits;
+	}
+
+	/**
+	 * Set the per-cell states to match the live cells, with no dying cells
+	 * and every live cell newly born.
+	 */
+	private void resetStates() {
+		if(dying != null)
+			Arrays.fill(dying, 0);
+		if(states == null)
+			return;
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				states[(y * width) + x] = (byte)(get(x, y) ? 1 : 0);
+			}
+		}
+	}
+
+	/**
+	 * Allocate or drop the per-cell states to suit the rule and the age
+	 * tracking setting.
+	 */
+	private void updateStates() {
+		boolean generations = rule.getStates() > 2;
+		if(generations) {
+			if(dying == null)
+				dying = new long[words * height];
+		} else {
+			dying = null;
+		}
+		prevDying = null;
+		if(generations || ageTracking) {
+			if(states == null)
+				states = new byte[width * height];
+		} else {
+			states = null;
+		}
+		resetStates();
+	}
+
+	/**
+	 * Switch tracking of the age of live cells on or off. Ages are only kept
+	 * for rules with two states.
+	 * @param ageTracking True to track ages
+	 */
+	public void setAgeTracking(boolean ageTracking) {
+		this.ageTracking = ageTracking;
+		updateStates();
+		Arrays.fill(dirty, true);
+		countsValid = false;
+	}
+
+	/**
+	 * Determine whether the ages of live cells are tracked.
+	 * @return True if ages are tracked
+	 */
+	public boolean isAgeTracking() {
+		return ageTracking && rule.getStates() == 2;
+	}
+
+	/**
+	 * Change the rule used to step the grid.
+	 * @param rule The new rule
+	 */
+	public void setRule(LifeRule rule) {
+		int n = 0;
+		int counts[] = new int[9];
+		birthMasks = new long[9];
+		survivalMasks = new long[9];
+		for(int i = 0; i < 9; i++) {
+			birthMasks[i] = rule.born(i) ? -1L : 0;
+			survivalMasks[i] = rule.survives(i) ? -1L : 0;
+			if(rule.born(i) || rule.survives(i))
+				counts[n++] = i;
+		}
+		this.ruleCounts = new int[n];
+		System.arraycopy(counts, 0, ruleCounts, 0, n);
+		this.conway = rule.equals(LifeRule.CONWAY);
+		LifeRule old = this.rule;
+		this.rule = rule;
+		if(old == null || old.getStates() != rule.getStates())
+			updateStates();
+		// Settled tiles may not be settled under the new rule
+		Arrays.fill(dirty, true);
+		countsValid = false;
+	}
+
+	/**
+	 * Get the rule used to step the grid.
+	 * @return The rule
+	 */
+	public LifeRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Get the number of generations the grid has been stepped through.
+	 * @return The generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
 	/**
 	 * Get the width of the grid.
 	 * @return The width as an integer
@@ -200,7 +1278,7 @@ public class CellularGrid {
 	public int getWidth() {
 		return width;
 	}
-	
+
 	/**
 	 * Get the height of the grid.
 	 * @return The height as an integer
@@ -208,10 +1286,279 @@ public class CellularGrid {
 	public int getHeight() {
 		return height;
 	}
-	
-	//  TODO
-	public void analyze() {
-		//GraphSet<Point,String> gs = new GraphSet<Point,String>(new GridBuild());
+
+	/**
+	 * Get the number of tile columns.
+	 * @return The number of tiles across the grid
+	 */
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	/**
+	 * Get the number of tile rows.
+	 * @return The number of tiles down the grid
+	 */
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	/**
+	 * Get a count of the changes made to the cells from outside of a step
+	 * or load, by set(), setRun(), scatter() or randomize(). The change map
+	 * only holds the changes of the last step or load, so anything which
+	 * follows it from one to the next has to start again when the count
+	 * moves on.
+	 * @return The number of changes
+	 */
+	public long getModifications() {
+		return modifications;
+	}
+
+	/**
+	 * Get a 64 bit hash of the live cells, for spotting a board which has
+	 * been seen before. Each word of the grid contributes a mixed value of
+	 * its cells and position, and the contributions are combined with XOR,
+	 * so a step only has to update the hash for the words which changed.
+	 * Ages and dying states are not included.
+	 * @return The hash
+	 */
+	public long getHash() {
+		if(!hashValid) {
+			long h = 0;
+			for(int i = 0; i < grid.length; i++)
+				h ^= wordHash(i, grid[i]);
+			hash = h;
+			hashValid = true;
+		}
+		return hash;
+	}
+
+	/**
+	 * Mix a word of the grid with its position, using the finalizer of
+	 * SplitMix64. Empty words contribute nothing.
+	 * @param i The index of the word
+	 * @param word The cells of the word
+	 * @return The contribution of the word to the hash
+	 */
+	private static long wordHash(int i, long word) {
+		if(word == 0)
+			return 0;
+		long z = word + (i * 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Update the hash from the changed words of the dirty tiles, after a
+	 * step. The change map also holds the cells whose states changed, so
+	 * with states the live cells which changed are found by comparing with
+	 * the previous generation, which the word stepper always leaves behind.
+	 */
+	private void updateHash() {
+		long h = hash;
+		for(int ty = 0; ty < tilesY; ty++) {
+			int end = Math.min(height, (ty + 1) * TILE_HEIGHT);
+			for(int tx = 0; tx < tilesX; tx++) {
+				if(!dirty[(ty * tilesX) + tx])
+					continue;
+				for(int y = ty * TILE_HEIGHT; y < end; y++) {
+					int i = (y * words) + tx;
+					long c = (states == null) ? changeMap[i] 
+							: prev[i] ^ grid[i];
+					if(c != 0)
+						h ^= wordHash(i, grid[i] ^ c) ^ wordHash(i, grid[i]);
+				}
+			}
+		}
+		hash = h;
+	}
+
+	/**
+	 * Find the smallest rectangle holding every cell which changed in the
+	 * last step. Only dirty tiles are searched, a word at a time.
+	 * @param bounds Receives the left, top, right and bottom of the
+	 * rectangle in cells, with the right and bottom exclusive
+	 * @return False if no cell changed
+	 */
+	public boolean getChangedBounds(int bounds[]) {
+		int left = width, top = height, right = 0, bottom = 0;
+		for(int ty = 0; ty < tilesY; ty++) {
+			int end = Math.min(height, (ty + 1) * TILE_HEIGHT);
+			for(int tx = 0; tx < tilesX; tx++) {
+				if(!dirty[(ty * tilesX) + tx])
+					continue;
+				for(int y = ty * TILE_HEIGHT; y < end; y++) {
+					long c = changeMap[(y * words) + tx];
+					if(c == 0)
+						continue;
+					top = Math.min(top, y);
+					bottom = Math.max(bottom, y + 1);
+					left = Math.min(left, 
+							(tx << 6) + Long.numberOfTrailingZeros(c));
+					right = Math.max(right, 
+							(tx << 6) + 64 - Long.numberOfLeadingZeros(c));
+				}
+			}
+		}
+		if(right == 0)
+			return false;
+		bounds[0] = left;
+		bounds[1] = top;
+		bounds[2] = right;
+		bounds[3] = bottom;
+		return true;
+	}
+
+	/**
+	 * Get 64 packed cells of a row. Bit n of the word holds the cell at
+	 * (word * 64) + n, and the bits beyond the width are always clear.
+	 * Renderers can work through the rows a word at a time with this rather
+	 * than calling get() for every cell.
+	 * @param word The index of the word within the row, which is also the
+	 * tile column
+	 * @param y The row
+	 * @return The packed cells
+	 */
+	public long getWord(int word, int y) {
+		return grid[(y * words) + word];
+	}
+
+	/**
+	 * Get the cells which changed in the last step for 64 cells of a row, 
+	 * packed in the same way as getWord().
+	 * @param word The index of the word within the row
+	 * @param y The row
+	 * @return The packed changes
+	 */
+	public long getChangedWord(int word, int y) {
+		return changeMap[(y * words) + word];
+	}
+
+	/**
+	 * Determine if any cell in a tile changed in the last step. Cells in a
+	 * clean tile do not need to be redrawn.
+	 * @param tx The horizontal tile index
+	 * @param ty The vertical tile index
+	 * @return True if the tile is dirty
+	 */
+	public boolean isTileDirty(int tx, int ty) {
+		return dirty[(ty * tilesX) + tx];
+	}
+
+	/**
+	 * Get the number of live cells. The count is kept up to date from the
+	 * births and deaths of each step and load, so the grid is only counted
+	 * after a change from outside of a step.
+	 * @return The population
+	 */
+	public int getPopulation() {
+		if(!populationValid) {
+			int n = 0;
+			for(int i = 0; i < grid.length; i++)
+				n += Long.bitCount(grid[i]);
+			population = n;
+			populationValid = true;
+		}
+		return population;
+	}
+
+	/**
+	 * Get the number of cells born in the last step. After a load this is
+	 * the number of cells which are alive in the new generation but were
+	 * dead in the old one, however many generations apart they are.
+	 * @return The number of births
+	 */
+	public int getBirths() {
+		return births;
+	}
+
+	/**
+	 * Get the number of cells which died in the last step or load.
+	 * @return The number of deaths
+	 */
+	public int getDeaths() {
+		return deaths;
+	}
+
+	/**
+	 * Get the number of tiles with a cell which changed in the last step or
+	 * load, which is roughly the amount of work the next step has to do.
+	 * @return The number of dirty tiles
+	 */
+	public int getActiveTiles() {
+		return activeTiles;
+	}
+
+	/**
+	 * Label the connected clusters of live cells, with cells touching in any
+	 * of the eight directions joined, in time linear in the size of the 
+	 * grid. Live cells are found a word at a time and joined with a 
+	 * union-find structure, so no cell is boxed into an object.
+	 * @param dest A result to reuse, may be null
+	 * @return The clusters, which is a new object if dest was null or for a
+	 * grid of another size
+	 */
+	public Clusters analyze(Clusters dest) {
+		if(dest == null || dest.getWidth() != width 
+				|| dest.getHeight() != height)
+			dest = new Clusters(width, height);
+		dest.clear(generation);
+		DisjointSet set = dest.getSet();
+		long bits;
+		for(int y = 0; y < height; y++) {
+			for(int w = 0; w < words; w++) {
+				for(bits = grid[(y * words) + w]; bits != 0; bits &= bits - 1)
+					set.make((y * width) + (w << 6) 
+							+ Long.numberOfTrailingZeros(bits));
+			}
+		}
+
+		// Each pair of neighbours is joined once, from the upper left cell
+		for(int y = 0; y < height; y++) {
+			int yb = y + 1;
+			if(yb == height)
+				yb = wrap ? 0 : -1;
+			for(int w = 0; w < words; w++) {
+				for(bits = grid[(y * words) + w]; bits != 0; bits &= bits - 1) {
+					int x = (w << 6) + Long.numberOfTrailingZeros(bits);
+					int i = (y * width) + x;
+					int xr = x + 1;
+					if(xr == width)
+						xr = wrap ? 0 : -1;
+					if(xr >= 0 && get(xr, y))
+						set.union(i, (y * width) + xr);
+					if(yb < 0)
+						continue;
+					for(int xm = -1; xm < 2; xm++) {
+						int xp = x + xm;
+						if(xp < 0 || xp >= width) {
+							if(!wrap) continue;
+							xp = (xp < 0) ? width - 1 : 0;
+						}
+						if(get(xp, yb))
+							set.union(i, (yb * width) + xp);
+					}
+				}
+			}
+		}
+
+		for(int y = 0; y < height; y++) {
+			for(int w = 0; w < words; w++) {
+				for(bits = grid[(y * words) + w]; bits != 0; bits &= bits - 1)
+					dest.label((w << 6) + Long.numberOfTrailingZeros(bits), y);
+			}
+		}
+		return dest;
+	}
+
+	/**
+	 * Label the connected clusters of live cells.
+	 * @return The clusters
+	 */
+	public Clusters analyze() {
+		return analyze(null);
 	}
 
 }
@@ -1,74 +1,306 @@
 package me.dje.life;
 
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import android.content.Context;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
- * Parses and represents a map file which describes a set of structures used to 
- * initialise a grid. 
+ * Parses and represents a map file which describes a set of structures used to
+ * initialise a grid.
+ *
+ * A map file is a list of named maps, each holding coordinates and
+ * references to maps defined earlier in the file at an offset:
+ *
+ *     # Comment to the end of the line
+ *     block { (0,0) (0,1) (1,0) (1,1) }
+ *     twoblocks { block(0,0) block(4,0) }
+ *
+ * Opening a file reads it once through a small fixed window, checking the
+ * syntax and recording each map as an array of ints holding its points and
+ * its references by number. The text itself is never held, so reading costs
+ * the window plus the recorded maps, which are smaller than the text. A map
+ * is built the first time it is asked for, along with any maps it refers
+ * to, and the most recently used maps are kept decoded. Once the maps are
+ * written in compiled form they are read from the memory mapped compiled
+ * file instead.
+ *
+ * A parsed file can be written out in a compiled form, with every reference
+ * resolved, and read back lazily from a memory mapped buffer with a single
+ * bulk copy per map:
+ *
+ *     int magic, int version, long stamp, int count
+ *     count times: short length, name as by writeUTF, int n, n x, n y
  * @author dylan
  *
  */
 public class CellularMapFile {
-	private static enum State { TOP, MAP, X, Y, };
-	private static enum Token { EOF, SPACE, COMMENT, ID, NUM, LBRAC, RBRAC, 
-		LPAR, RPAR, COMMA };
-	private static final Pattern pattern;
-	static {
-		pattern = Pattern.compile(
-				"^(\\s+)"					// SPACE
-				+ "|([#][^\n]*\n|$)"		// COMMENT
-				+ "|([a-zA-Z_]\\w*)"		// ID
-				+ "|(\\d+)"					// NUM
-				+ "|(\\{)"					// LBRAC
-				+ "|(\\})"					// RBRAC
-				+ "|(\\()"					// LPAR
-				+ "|(\\))"					// RPAR
-				+ "|(,)"					// COMMA
-				);
+	private static enum Token { EOF, ID, NUM, LBRAC, RBRAC, LPAR, RPAR,
+		COMMA };
+
+	private static final int COMPILED_MAGIC = 0x444C5043; // DLPC
+	private static final int COMPILED_VERSION = 1;
+
+	/**
+	 * The number of decoded maps kept.
+	 */
+	private static final int CACHE_SIZE = 16;
+
+	/**
+	 * The number of characters read from the file at a time.
+	 */
+	private static final int WINDOW_SIZE = 4096;
+
+	/*
+	 * Map names to where they are kept, the number of the recorded body for
+	 * a text file, or the offset into the file in bytes of the point count
+	 * for a compiled file.
+	 */
+	private HashMap<String, Long> index;
+	/*
+	 * The recorded body of each map in a text file. A point is the ints 0, x
+	 * and y, a reference is the number of the name plus one, x, y and the
+	 * line of the reference.
+	 */
+	private ArrayList<int[]> bodies;
+	private ArrayList<String> names;
+	private ByteBuffer compiled;
+	private LinkedHashMap<String, Map> cache;
+	private HashSet<String> loading;
+
+	private CellularMapFile() {
+		index = new HashMap<String, Long>();
+		loading = new HashSet<String>();
+		cache = new LinkedHashMap<String, Map>(CACHE_SIZE, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					java.util.Map.Entry<String, Map> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
 	}
-	
-	private HashMap<String, Map> patterns;
-	
+
 	/**
-	 * Open and parse a map file.
-	 * @param context A Context instance for opening the data file
-	 * @param fileName The name of the file to open
+	 * Read and index a map file. The whole file is checked for syntax
+	 * errors, but no map is built until it is asked for.
+	 * @param reader The reader supplying the file, which is closed once the
+	 * file has been read
 	 * @throws Exception
 	 */
-	public CellularMapFile(Context context, String fileName) 
-			throws Exception {
-		InputStream raw = context.getResources().openRawResource(R.raw.life);
-		InputStreamReader isr = new InputStreamReader(raw);
-		String fileText = new String();
-		char[] buffer = new char[1024];
-		while(isr.read(buffer, 0, 1024) > 0) {
-			fileText = fileText.concat(new String(buffer));
+	public CellularMapFile(Reader reader) throws Exception {
+		this();
+		bodies = new ArrayList<int[]>();
+		names = new ArrayList<String>();
+		try {
+			new Parser(reader).index();
+		} finally {
+			reader.close();
 		}
-		//System.out.println(fileText);
-		patterns = new HashMap<String, Map>();
-		new Parser(fileText);
 	}
-	
+
 	/**
-	 * Get a Map instance representing the points in a given map.
+	 * Write the maps in compiled form. The file is written beside the target
+	 * and renamed into place, so a reader never sees half a file, and it is
+	 * deleted if anything goes wrong. A map file read from text switches 
+	 * over to the compiled file once it is written and lets go of the 
+	 * recorded maps. If it can not be written the recorded maps are kept,
+	 * but never the text they were read from.
+	 * @param file The file to write
+	 * @param stamp A value identifying the source, such as the version of
+	 * the application, which read() checks
+	 * @throws IOException If the file can not be written
+	 */
+	public void write(File file, long stamp) 
+			throws IOException, UnexpectedTokenException {
+		File tmp = new File(file.getPath() + ".tmp");
+		boolean written = false;
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(COMPILED_MAGIC);
+				out.writeInt(COMPILED_VERSION);
+				out.writeLong(stamp);
+				out.writeInt(index.size());
+				for(String name : index.keySet()) {
+					Map m = getPoints(name);
+					out.writeUTF(name);
+					out.writeInt(m.size);
+					for(int i = 0; i < m.size; i++)
+						out.writeInt(m.xs[i]);
+					for(int i = 0; i < m.size; i++)
+						out.writeInt(m.ys[i]);
+				}
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(file))
+				throw new IOException("Could not replace " + file);
+			written = true;
+		} finally {
+			if(!written)
+				tmp.delete();
+		}
+		if(compiled == null) {
+			// Read the maps from the compiled file from now on, so the
+			// recorded maps are not kept in memory
+			CellularMapFile maps = read(file, stamp);
+			if(maps != null) {
+				index = maps.index;
+				compiled = maps.compiled;
+				bodies = null;
+				names = null;
+			}
+		}
+	}
+
+	/**
+	 * Read maps written by write().
+	 * @param file The compiled file
+	 * @param stamp The stamp of the current source
+	 * @return The maps, or null if the file does not exist, was written by
+	 * another version or has a different stamp
+	 * @throws IOException If the file can not be read or is damaged
+	 */
+	public static CellularMapFile read(File file, long stamp)
+			throws IOException {
+		if(!file.exists())
+			return null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			if(buf.getInt() != COMPILED_MAGIC
+					|| buf.getInt() != COMPILED_VERSION
+					|| buf.getLong() != stamp)
+				return null;
+			CellularMapFile maps = new CellularMapFile();
+			int count = buf.getInt();
+			byte name[] = new byte[256];
+			for(int p = 0; p < count; p++) {
+				int length = buf.getShort() & 0xFFFF;
+				if(length > name.length)
+					name = new byte[length];
+				buf.get(name, 0, length);
+				int offset = buf.position();
+				int n = buf.getInt();
+				if(n < 0 || n > buf.remaining() / 8)
+					throw new IOException("Damaged map file " + file);
+				buf.position(buf.position() + (n * 8));
+				maps.index.put(new String(name, 0, length, "UTF-8"),
+						Long.valueOf(offset));
+			}
+			maps.compiled = buf;
+			return maps;
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Damaged map file " + file);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get a Map instance representing the points in a given map. The map is
+	 * decoded if it is not one of the recently used maps.
 	 * @param name The name of a map.
-	 * @return a Map instance.
+	 * @return a Map instance, or null if there is no such map.
+	 * @throws UnexpectedTokenException If the map can not be parsed
 	 */
-	public Map getPoints(String name) {
-		if(!patterns.containsKey(name))
+	public Map getPoints(String name) throws UnexpectedTokenException {
+		Map map = cache.get(name);
+		if(map != null)
+			return map;
+		Long start = index.get(name);
+		if(start == null)
 			return null;
-		return patterns.get(name);
+		long s = start.longValue();
+		if(compiled != null) {
+			map = decode((int)s);
+		} else {
+			if(!loading.add(name))
+				throw new UnexpectedTokenException("Map " + name 
+						+ " includes itself");
+			try {
+				map = build(bodies.get((int)s));
+			} finally {
+				loading.remove(name);
+			}
+		}
+		cache.put(name, map);
+		return map;
+	}
+
+	/**
+	 * Get the names of every map in the file.
+	 * @return The names, which can not be changed
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	/**
+	 * Build a map from its recorded body, building the maps it refers to
+	 * first.
+	 * @param body The recorded body
+	 * @return The map
+	 * @throws UnexpectedTokenException If a map it refers to is missing or
+	 * includes itself
+	 */
+	private Map build(int body[]) throws UnexpectedTokenException {
+		Map map = new Map();
+		int i = 0;
+		while(i < body.length) {
+			int ref = body[i];
+			if(ref == 0) {
+				map.add(body[i + 1], body[i + 2]);
+				i += 3;
+			} else {
+				String name = names.get(ref - 1);
+				Map m = getPoints(name);
+				if(m == null)
+					throw new UnexpectedTokenException("Line " + body[i + 3]
+							+ ": Unknown map " + name);
+				map.add(m, body[i + 1], body[i + 2]);
+				i += 4;
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Copy the points of a map out of the compiled buffer.
+	 * @param offset The offset of the point count
+	 * @return The map
+	 */
+	private Map decode(int offset) {
+		ByteBuffer buf = compiled.duplicate();
+		buf.position(offset);
+		int n = buf.getInt();
+		int xs[] = new int[n];
+		int ys[] = new int[n];
+		IntBuffer ints = buf.asIntBuffer();
+		ints.get(xs);
+		ints.get(ys);
+		return new Map(xs, ys);
 	}
-	
+
 	/**
 	 * A single coordinate.
 	 */
@@ -79,310 +311,361 @@ public class CellularMapFile {
 			this.y = y;
 		}
 	}
-	
+
 	/**
-	 * The Map class represents a set of points.
+	 * The Map class represents a set of points, held in parallel arrays of
+	 * coordinates. Walk the points with size(), getX() and getY() to avoid
+	 * creating a Point for each one. Maps are shared through the cache, so
+	 * they can only be built by the parser and are read-only afterwards.
 	 * @author dylan
 	 *
 	 */
 	class Map implements Iterable<Point> {
-		private Vector<Point> points;
-		
+		private int xs[], ys[];
+		private int size;
+
 		/**
 		 * Create a Map instance.
 		 */
 		Map() {
-			points = new Vector<Point>();
+			xs = new int[16];
+			ys = new int[16];
+			size = 0;
 		}
-		
+
+		/**
+		 * Create a Map instance holding the given points.
+		 * @param xs The horizontal coordinates
+		 * @param ys The vertical coordinates
+		 */
+		Map(int xs[], int ys[]) {
+			this.xs = xs;
+			this.ys = ys;
+			this.size = xs.length;
+		}
+
+		/**
+		 * Get the number of points in the map.
+		 * @return The number of points
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Get the horizontal coordinate of a point.
+		 * @param i The index of the point
+		 * @return The horizontal coordinate
+		 */
+		public int getX(int i) {
+			return xs[i];
+		}
+
+		/**
+		 * Get the vertical coordinate of a point.
+		 * @param i The index of the point
+		 * @return The vertical coordinate
+		 */
+		public int getY(int i) {
+			return ys[i];
+		}
+
 		/**
 		 * Get an iterator over the points of the map.
 		 */
 		public Iterator<Point> iterator() {
-			return points.iterator();
+			return new Iterator<Point>() {
+				private int i = 0;
+
+				public boolean hasNext() {
+					return i < size;
+				}
+
+				public Point next() {
+					if(i >= size)
+						throw new NoSuchElementException();
+					Point p = new Point(xs[i], ys[i]);
+					i++;
+					return p;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
 		}
-		
+
 		/**
 		 * Add a point to a map.
 		 * @param x Horizontal coordinate
 		 * @param y Vertical coordinate
 		 */
-		public void add(int x, int y) {
-			points.add(new Point(x, y));
-		}
-		
-		/**
-		 * Add the points of a map at a specified offset.
-		 * @param mName The name of the map to be included
-		 * @param x The horizontal offset
-		 * @param y The vertical offset
-		 */
-		public void add(String mName, int x, int y) {
-			//System.out.println("map: " + mName);
-			Map m = patterns.get(mName);
-			add(m, x, y);
+		private void add(int x, int y) {
+			if(size == xs.length) {
+				int grownX[] = new int[Math.max(16, size << 1)];
+				int grownY[] = new int[grownX.length];
+				System.arraycopy(xs, 0, grownX, 0, size);
+				System.arraycopy(ys, 0, grownY, 0, size);
+				xs = grownX;
+				ys = grownY;
+			}
+			xs[size] = x;
+			ys[size] = y;
+			size++;
 		}
-		
+
 		/**
 		 * Add the points of a given map at a specified offset.
 		 * @param m The map containing the set of points
 		 * @param x The horizontal offset
 		 * @param y The vertical offset
 		 */
-		public void add(Map m, int x, int y) {
-			for(Point p : m) {
-				add(p.x + x, p.y + y);
+		private void add(Map m, int x, int y) {
+			int n = m.size;
+			for(int i = 0; i < n; i++) {
+				add(m.xs[i] + x, m.ys[i] + y);
 			}
 		}
 	}
-	
+
 	/**
 	 * This exception represents a syntax error.
 	 * @author dylan
 	 *
 	 */
 	class UnexpectedTokenException extends Exception {
-		
+		UnexpectedTokenException(String message) {
+			super(message);
+		}
 	}
-	
+
 	/**
-	 * The map file parser.
+	 * The map file parser. Tokens are scanned one at a time from a window
+	 * onto the reader, so only the names of maps are ever copied into
+	 * strings, and each map is recorded as it is checked.
 	 *
 	 */
 	class Parser {
+		private final Reader reader;
+		private final char window[] = new char[WINDOW_SIZE];
+		private int pos, limit;
+		private int ch;
+		private int line;
+		private Token token;
+		private int startLine;
+		private int number;
+		private final StringBuilder name = new StringBuilder();
+		private final HashMap<String, Integer> ids
+				= new HashMap<String, Integer>();
+		private int body[] = new int[64];
+		private int bodyLength;
+
 		/**
-		 * @param mapText
+		 * Create a parser reading from the start of a file.
+		 * @param reader The reader supplying the file
+		 * @throws IOException If the file can not be read
+		 */
+		Parser(Reader reader) throws IOException {
+			this.reader = reader;
+			this.line = 1;
+			ch = read();
+		}
+
+		/**
+		 * Scan the whole file, checking the syntax of every map and
+		 * recording its body.
 		 * @throws UnexpectedTokenException
+		 * @throws IOException If the file can not be read
 		 */
-		Parser(String mapText) throws UnexpectedTokenException {
-			Tokenizer t = new Tokenizer(mapText);
-			
+		void index() throws UnexpectedTokenException, IOException {
+			advance();
 			// This is the body of the parser, a map begins with an ID
-			while(t.expect(Token.ID) != null) {
-				String name = t.text();
-				t.require(Token.LBRAC); // Followed by a left bracket
-				Map map = new Map();
-				Token cur;
-				while((cur = t.expect(Token.ID, Token.LPAR)) != null) {
-					switch(cur) {
-					case ID:
-						String ref = t.text();
-						System.out.println("Got id: " + ref);
-						String[] items = t.sequence(Token.LPAR, Token.NUM, 
-								Token.COMMA, Token.NUM, Token.RPAR);
-						// Add the sub-map at the specified offsets
-						map.add(ref, Integer.parseInt(items[1]), 
-								Integer.parseInt(items[3]));
-						break;
-					case LPAR:
-						String[] coord = t.sequence(Token.NUM, Token.COMMA, 
-								Token.NUM, Token.RPAR);
-						// Add the point
-						map.add(Integer.parseInt(coord[0]), 
-								Integer.parseInt(coord[2]));
-						break;
-					}
-				}
-				t.require(Token.RBRAC);
-				
-				patterns.put(name, map);
-				for(String k : patterns.keySet()) {
-					System.out.println("----  Key: " + k);
-				}
+			while(token == Token.ID) {
+				String mapName = name.toString();
+				advance();
+				body();
+				index.put(mapName, Long.valueOf(bodies.size()));
+				bodies.add(Arrays.copyOf(body, bodyLength));
 			}
-			t.require(Token.EOF);
+			require(Token.EOF);
 		}
-	}
-	
-	/**
-	 * A token scanner which uses a stack to verify grammar rules.
-	 * 
-	 *
-	 */
-	class Tokenizer implements Iterator<Token> {
-		private Matcher match;
-		private Token currentToken;
-		private String currentText;
-		private int tokenIndex = 0;
-		private LinkedList<Token> tokenStack;
-		private LinkedList<String> stringStack;
-		private Vector<Token> ignoreTokens;
-		
+
 		/**
-		 * Initialise the scanner with a string.
-		 * @param text The string to scan
+		 * Parse the body of a map, from the left bracket to the right, and
+		 * record its points and references.
+		 * @throws UnexpectedTokenException
+		 * @throws IOException If the file can not be read
 		 */
-		Tokenizer(String text) {
-			tokenIndex = 0;
-			tokenStack = new LinkedList<Token>();
-			stringStack = new LinkedList<String>();
-			ignoreTokens = new Vector<Token>();
-			match = pattern.matcher(text);
-			currentToken = Token.EOF;
-			ignoreTokens.add(Token.SPACE);
-			ignoreTokens.add(Token.COMMENT);
+		private void body() throws UnexpectedTokenException, IOException {
+			bodyLength = 0;
+			require(Token.LBRAC); // Followed by a left bracket
+			while(token == Token.ID || token == Token.LPAR) {
+				if(token == Token.ID) {
+					// Add the sub-map at the specified offsets
+					int ref = id(name.toString());
+					int refLine = startLine;
+					advance();
+					require(Token.LPAR);
+					int x = requireNumber();
+					require(Token.COMMA);
+					int y = requireNumber();
+					require(Token.RPAR);
+					record(ref + 1, x, y);
+					record(refLine);
+				} else {
+					// Add the point
+					advance();
+					int x = requireNumber();
+					require(Token.COMMA);
+					int y = requireNumber();
+					require(Token.RPAR);
+					record(0, x, y);
+				}
+			}
+			require(Token.RBRAC);
 		}
-		
+
 		/**
-		 * Read the next available token. The Token is read from the stack if
-		 * one is ready.
-		 * @return The next Token.
+		 * Get the number of a map name, numbering it if it is new. Maps may
+		 * be referred to before they are defined.
+		 * @param mapName The name
+		 * @return The number
 		 */
-		private Token readStack() {
-			if(tokenIndex < tokenStack.size()) {
-				int i = tokenIndex;
-				tokenIndex++;
-				return tokenStack.get(i);
-			}
-			
-			while(match.find()) {
-				for(Token token : Token.values()) {
-					if(token == Token.EOF) continue;
-					String str = match.group(token.ordinal());
-					if( str != null) {
-						if(ignoreTokens.contains(token))
-							break;
-						System.out.println("Token: " + token.name() + 
-								" " + str);
-						tokenStack.add(token);
-						stringStack.add(str);
-						tokenIndex++;
-						return token;
-					}
-				}
+		private int id(String mapName) {
+			Integer id = ids.get(mapName);
+			if(id == null) {
+				id = Integer.valueOf(names.size());
+				ids.put(mapName, id);
+				names.add(mapName);
 			}
-			return Token.EOF;
+			return id.intValue();
 		}
-		
+
 		/**
-		 * Reset the stack.
+		 * Add three ints to the body being recorded.
 		 */
-		private void resetStack() {
-			tokenIndex = 0;
+		private void record(int a, int b, int c) {
+			record(a);
+			record(b);
+			record(c);
 		}
-		
+
 		/**
-		 * Clear the stack and reset the stack pointer.
+		 * Add an int to the body being recorded.
 		 */
-		private void clearStack() {
-			tokenStack.clear();
-			stringStack.clear();
-			tokenIndex = 0;
+		private void record(int v) {
+			if(bodyLength == body.length)
+				body = Arrays.copyOf(body, body.length << 1);
+			body[bodyLength++] = v;
 		}
-		
+
 		/**
-		 * Check whether more tokens are available. 
-		 * @return True if there are more tokens, otherwise false
+		 * Read the next character, filling the window from the reader when
+		 * it runs out.
+		 * @return The character or -1 at the end of the file
+		 * @throws IOException If the file can not be read
 		 */
-		@Override
-		public boolean hasNext() {
-			if(tokenStack.size() == 0) {
-				Token t = readStack();
-				if(t == null || t == Token.EOF) {
-					return false;
+		private int read() throws IOException {
+			if(pos == limit) {
+				pos = 0;
+				limit = reader.read(window, 0, window.length);
+				if(limit <= 0) {
+					limit = 0;
+					return -1;
 				}
 			}
-			return true;
+			return window[pos++];
 		}
 
 		/**
-		 * Get the next available token. This method removes the token from the
-		 * stack if available.
+		 * Scan the next token, skipping spaces and comments.
+		 * @throws UnexpectedTokenException If a character can not start a
+		 * token
 		 */
-		@Override
-		public Token next() {
-			if(!hasNext())
-				return Token.EOF;
-			Token cur = tokenStack.removeFirst();
-			currentText = stringStack.removeFirst();
-			return cur;
-		}
-		
-		/**
-		 * Get the text of the token read by the last call to next.
-		 * @return The text of the token
-		 */
-		public String text() {
-			return currentText;
-		}
-		
-		/**
-		 * Non functioning method required to implement Iterator.
-		 * @see java.util.Iterator#remove()
-		 */
-		@Override
-		public void remove() {
-			
+		private void advance() throws UnexpectedTokenException, IOException {
+			while(true) {
+				if(ch == '\n') {
+					line++;
+					ch = read();
+				} else if(ch == '#') {
+					while(ch != '\n' && ch != -1)
+						ch = read();
+				} else if(ch == ' ' || ch == '\t' || ch == '\r'
+						|| (ch != -1 && Character.isWhitespace(ch))) {
+					ch = read();
+				} else {
+					break;
+				}
+			}
+
+			startLine = line;
+			if(ch == -1) {
+				token = Token.EOF;
+			} else if(ch >= '0' && ch <= '9') {
+				number = 0;
+				while(ch >= '0' && ch <= '9') {
+					if(number > (Integer.MAX_VALUE - (ch - '0')) / 10)
+						throw error("Number too large");
+					number = (number * 10) + (ch - '0');
+					ch = read();
+				}
+				token = Token.NUM;
+			} else if(ch == '_' || Character.isLetter(ch)) {
+				name.setLength(0);
+				while(ch == '_'
+						|| (ch != -1 && Character.isLetterOrDigit(ch))) {
+					name.append((char)ch);
+					ch = read();
+				}
+				token = Token.ID;
+			} else {
+				switch(ch) {
+				case '{': token = Token.LBRAC; break;
+				case '}': token = Token.RBRAC; break;
+				case '(': token = Token.LPAR; break;
+				case ')': token = Token.RPAR; break;
+				case ',': token = Token.COMMA; break;
+				default:
+					throw error("Unexpected character '" + (char)ch + "'");
+				}
+				ch = read();
+			}
 		}
-		
+
 		/**
-		 * Require any one of the Tokens in the argument list. An exception is
-		 * thrown if the no matching token is found.
-		 * @param tokens A list of Tokens
-		 * @return False only at the end of the file.
-		 * @throws UnexpectedTokenException If the specified token isn't found
+		 * Require the current token to be of a type and move past it.
+		 * @param t The type of token required
+		 * @throws UnexpectedTokenException If the token is of another type
 		 */
-		public Token require(Token ... tokens) 
-				throws UnexpectedTokenException {
-			Token t = expect(tokens);
-			if(t == null) {
-				throw new UnexpectedTokenException();
-			}
-			return t;
+		private void require(Token t) 
+				throws UnexpectedTokenException, IOException {
+			if(token != t)
+				throw error("Expected " + t + " but found " + token);
+			if(t != Token.EOF)
+				advance();
 		}
-		
+
 		/**
-		 * Read any of the listed tokens. This method behaves like next but
-		 * is selective about the type of Token which can be read, and if the 
-		 * next Token does not match any of the parameters then the state of 
-		 * the object is reset as if the function had not been called.
-		 * 
-		 * @param tokens List of valid Tokens
-		 * @return The matching Token or null if none match
+		 * Require the current token to be a number and move past it.
+		 * @return The value of the number
+		 * @throws UnexpectedTokenException If the token is not a number
 		 */
-		public Token expect(Token ... tokens) {
-			Token nt = readStack();
-			for(Token t : tokens) {
-				if(nt == t) {
-					if(Token.EOF != nt)
-						currentText = stringStack.get(tokenIndex - 1);
-					else
-						currentText = "";
-					clearStack();
-					return t;
-				}
-			}
-			resetStack();
-			return null;
+		private int requireNumber() 
+				throws UnexpectedTokenException, IOException {
+			int n = number;
+			require(Token.NUM);
+			return n;
 		}
-		
+
 		/**
-		 * Expect the specified sequence of tokens in the given order. If the 
-		 * tokens do not match then the stack is reset and an exception is 
-		 * thrown.
-		 * @param seq An ordered list of tokens
-		 * @return An array of strings containing the text of each token
-		 * @throws UnexpectedTokenException
+		 * Create an exception for a syntax error on the current line.
+		 * @param message A description of the error
+		 * @return The exception
 		 */
-		public String[] sequence(Token ... seq) 
-				throws UnexpectedTokenException {
-			String items[] = new String[seq.length];
-			int i = 0;
-			for(Token t : seq) {
-				Token nt = readStack();
-				//System.out.println("R: " + t + " T: " + nt);
-				if(t == nt) {
-					items[i] = stringStack.get(tokenIndex - 1);
-				} else {
-					resetStack();
-					throw new UnexpectedTokenException();
-				}
-				i++;
-			}
-			clearStack();
-			return items;
+		private UnexpectedTokenException error(String message) {
+			return new UnexpectedTokenException("Line " + line + ": "
+					+ message);
 		}
-	
 	}
-	
+
 }
@@ -4,23 +4,22 @@ import java.util.Random;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.graphics.BlurMaskFilter;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 
 public class CircleTheme extends LifeBaseTheme {
 	public static final String TAG = "CircleTheme";
+	private static final int FADE_LEVELS = 8;
 	private Paint bgPaint, fgPaint;
 	private Paint discoPaint[];
+	private Paint fadePaint[];
 	private Random rand;
-	private Bitmap bg;
-	private boolean redraw;
 	
 	public CircleTheme(Context context, CellularGrid grid) {
 		super(context, grid);
 		rand = new Random();
-		redraw = false;
 	}
 	
 	public void onSharedPreferenceChanged(SharedPreferences prefs, String arg1) {
@@ -39,72 +38,89 @@ public class CircleTheme extends LifeBaseTheme {
 			fgPaint = createPaint(this.getForeground());
 		}
 		
+		fadePaint = new Paint[FADE_LEVELS];
+		for(int i = 1; i < FADE_LEVELS; i++) {
+			fadePaint[i] = createPaint(blend(this.getForeground(), 
+					this.getBackground(), i));
+		}
 	}
 	
-	public void clear(Canvas c) {
-		c.drawPaint(this.bgPaint);
-		Canvas bgC = new Canvas(bg);
-		bgC.drawPaint(this.bgPaint);
-		redraw = true;
+	/**
+	 * Choose how faded a cell is drawn. The dying states of a Generations 
+	 * rule fade towards the background, and so do old cells when ages are 
+	 * being tracked.
+	 * @param state The state of the cell
+	 * @return The fade level, 0 for a fresh live cell
+	 */
+	private int fadeLevel(int state) {
+		if(state <= 1)
+			return 0;
+		int states = grid.getRule().getStates();
+		if(states > 2)
+			return (state - 1) * FADE_LEVELS / states;
+		if(grid.isAgeTracking())
+			return Math.min(FADE_LEVELS - 1, 
+					(state - 1) / CellularGrid.AGE_STEP);
+		return 0;
 	}
 	
-	public void draw(Canvas c) {
-		if(bg == null || bg.getWidth() != c.getWidth()) {
-			bg = Bitmap.createBitmap(c.getWidth(), c.getHeight(), 
-					Bitmap.Config.ARGB_8888);
-			this.clear(c);
-		}
-		Canvas tmpCanvas = new Canvas(bg);
-		Paint p = fgPaint;
-		
-		int cellWidth = tmpCanvas.getWidth() / grid.getWidth();
-		int cellHeight = tmpCanvas.getHeight() / grid.getHeight();
-		boolean portrait = (tmpCanvas.getWidth() < tmpCanvas.getHeight());
-		
-		for(int x = 0; x < grid.getWidth(); x++) {
-			for(int y = 0; y < grid.getHeight(); y++) {
-				if(redraw || grid.changed(x, y)) {
-					if(discoPaint != null) {
-						int i = rand.nextInt(discoPaint.length);
-						p = discoPaint[i];
-					}
-					if(portrait) {
-						int left = (x * cellWidth);
-						int top = (y * cellWidth);
-						if(grid.get(x, y))
-							tmpCanvas.drawCircle(left + (cellWidth / 2), 
-									top + (cellWidth / 2), 
-									cellWidth / 2 - 1, p);
-						else
-							tmpCanvas.drawRect(left, top, left + cellWidth, 
-									top + cellWidth, bgPaint);
-					} else {
-						int left = (x * cellWidth);
-						int top = (y * cellWidth);
-						if(grid.get(x, y))
-							tmpCanvas.drawCircle(left + (cellWidth / 2), 
-									top + (cellWidth / 2), 
-									cellWidth / 2 - 1, p);
-						else
-							tmpCanvas.drawRect(left, top, left + cellWidth, 
-									top + cellWidth, bgPaint);
-					}
-				}
-			}
+	/**
+	 * Mix two colours.
+	 * @param from The colour at level 0
+	 * @param to The colour at FADE_LEVELS
+	 * @param level How far to move from one colour to the other
+	 * @return The mixed colour
+	 */
+	private static int blend(int from, int to, int level) {
+		int c = 0;
+		for(int shift = 0; shift < 24; shift += 8) {
+			int a = (from >> shift) & 0xFF;
+			int b = (to >> shift) & 0xFF;
+			c |= (a + (b - a) * level / FADE_LEVELS) << shift;
 		}
-		redraw = false;
-		c.drawBitmap(bg, 0, 0, fgPaint);
+		return c;
 	}
 	
 	/**
-	 * Change the bg Bitmap and schedule a redraw.
+	 * The background is sprite 0, the fade levels follow it, and the live 
+	 * colours come last.
 	 */
-	public void rotate(int width, int height) {
-		//TODO: fancy rotation matrix
-		bg = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-		Canvas bgC = new Canvas(bg);
-		bgC.drawPaint(this.bgPaint);
-		redraw = true;
+	@Override
+	protected int getSpriteCount() {
+		return FADE_LEVELS + (discoPaint != null ? discoPaint.length : 1);
+	}
+	
+	@Override
+	protected void renderSprite(Canvas c, int sprite, Rect cell) {
+		c.drawRect(cell, bgPaint);
+		if(sprite == 0)
+			return;
+		Paint p;
+		if(sprite < FADE_LEVELS)
+			p = fadePaint[sprite];
+		else if(discoPaint != null)
+			p = discoPaint[sprite - FADE_LEVELS];
+		else
+			p = fgPaint;
+		int size = cell.width();
+		c.drawCircle(cell.left + (size / 2), cell.top + (size / 2), 
+				size / 2 - 1, p);
+	}
+	
+	@Override
+	protected void drawCell(Canvas c, int x, int y, boolean alive, 
+			int cellSize) {
+		int state = grid.getState(x, y);
+		int sprite = 0;
+		if(state != 0) {
+			sprite = fadeLevel(state);
+			if(sprite == 0) {
+				sprite = FADE_LEVELS;
+				if(discoPaint != null)
+					sprite += rand.nextInt(discoPaint.length);
+			}
+		}
+		drawSprite(c, sprite, x * cellSize, y * cellSize);
 	}
 	
 	private Paint createPaint(int color) {
@@ -6,7 +6,7 @@ import android.graphics.BlurMaskFilter;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.util.Log;
+import android.graphics.Rect;
 
 public class ClassicTheme extends LifeBaseTheme {
 	public static final String TAG = "ClassicTheme";
@@ -17,41 +17,30 @@ public class ClassicTheme extends LifeBaseTheme {
 	}
 	
 	@Override
-	public void clear(Canvas c) {
-		int cWidth = c.getWidth() / grid.getWidth();
-		for(int x = 0; x < grid.getWidth(); x++) {
-			for(int y = 0; y < grid.getHeight(); y++) {
-				Paint p;
-				if(((x & 1) == 1 && (y & 1) == 1) || (x & 1) != 1 && (y & 1) != 1) {
-					p = bgOddPaint;
-				} else {
-					p = bgEvenPaint;
-				}
-				Log.d(TAG, "paint: " + p);
-				c.drawRect(x * cWidth, y * cWidth, (x+1) * cWidth, (y+1) * cWidth, p);
-			}
-		}
+	protected void drawCell(Canvas c, int x, int y, boolean alive, 
+			int cellSize) {
+		int sprite = ((x ^ y) & 1) << 1;
+		if(alive)
+			sprite |= 1;
+		drawSprite(c, sprite, x * cellSize, y * cellSize);
 	}
-
+	
+	/**
+	 * There are four sprites, the odd and even checker squares each with and
+	 * without a live cell.
+	 */
 	@Override
-	public void draw(Canvas c) {
-		int cWidth = c.getWidth() / grid.getWidth();
-		for(int x = 0; x < grid.getWidth(); x++) {
-			for(int y = 0; y < grid.getHeight(); y++) {
-				Paint p;
-				if(((x & 1) == 1 && (y & 1) == 1) || (x & 1) != 1 && (y & 1) != 1) {
-					p = bgOddPaint;
-				} else {
-					p = bgEvenPaint;
-				}
-				c.drawRect(x * cWidth, y * cWidth, (x+1) * cWidth, (y+1) * cWidth, p);
-				if(grid.get(x, y)) {
-					c.drawRect(x * cWidth + 1, y * cWidth + 1, 
-							(x+1) * cWidth - 1, (y+1) * cWidth - 1, fgPaint);
-				}
-			}
+	protected int getSpriteCount() {
+		return 4;
+	}
+	
+	@Override
+	protected void renderSprite(Canvas c, int sprite, Rect cell) {
+		c.drawRect(cell, (sprite & 2) == 0 ? bgOddPaint : bgEvenPaint);
+		if((sprite & 1) != 0) {
+			c.drawRect(cell.left + 1, cell.top + 1, cell.right - 1, 
+					cell.bottom - 1, fgPaint);
 		}
-
 	}
 	
 	public void onSharedPreferenceChanged(SharedPreferences prefs, String opt) {
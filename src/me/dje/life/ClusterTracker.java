@@ -0,0 +1,415 @@
+package me.dje.life;
+
+/**
+ * Keeps the clusters of live cells of a grid up to date from one generation
+ * to the next, and gives each cluster an id which it keeps for as long as it
+ * lives, so a glider has the same id as it moves across the board.
+ *
+ * After the first full analysis only the cells which changed are looked at.
+ * A cluster which lost a cell, or which is next to a cell that was born, is
+ * taken apart and flood filled again together with the new cells, and every
+ * other cluster is left alone, so the cost of an update depends on the
+ * activity on the board rather than its size. Each cluster found by the
+ * flood fill takes the id of the old cluster it shares most cells with, if
+ * that id has not already been taken, and otherwise gets a new id.
+ *
+ * update() must see every change to the grid, so it is called after each
+ * step or load. If a generation goes backwards, the size or wrapping of the
+ * grid changes, a different grid is passed or the cells were changed from
+ * outside of a step, the clusters are analysed from scratch.
+ * @author dylan
+ *
+ */
+public class ClusterTracker {
+	private static final int DEAD = -1;
+	private static final int PENDING = -2;
+	private static final int QUEUED = -3;
+
+	private CellularGrid tracked;
+	private int width, height;
+	private boolean wrap;
+	private long generation, modifications;
+	private int labels[];
+	private int previous[];
+
+	// Per id
+	private int population[], left[], top[], right[], bottom[];
+	private long born[];
+	private int mark[], claim[], tally[];
+	private int nextId;
+	private int free[];
+	private int freeCount;
+	private int count;
+	private int serial;
+
+	// Scratch lists
+	private int seeds[], affected[], stack[], component[], touched[];
+	private Clusters clusters;
+
+	/**
+	 * Create a tracker. Nothing is tracked until the first update.
+	 */
+	public ClusterTracker() {
+		labels = null;
+		generation = -1;
+		seeds = new int[64];
+		affected = new int[16];
+		stack = new int[64];
+		component = new int[64];
+		touched = new int[16];
+		free = new int[16];
+		growIds(16);
+	}
+
+	private static int[] resize(int a[], int n) {
+		int b[] = new int[n];
+		if(a != null)
+			System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+		return b;
+	}
+
+	private static int[] append(int a[], int n, int value) {
+		if(n == a.length)
+			a = resize(a, n * 2);
+		a[n] = value;
+		return a;
+	}
+
+	/**
+	 * Make room for ids up to n - 1.
+	 */
+	private void growIds(int n) {
+		population = resize(population, n);
+		left = resize(left, n);
+		top = resize(top, n);
+		right = resize(right, n);
+		bottom = resize(bottom, n);
+		mark = resize(mark, n);
+		claim = resize(claim, n);
+		tally = resize(tally, n);
+		long b[] = new long[n];
+		if(born != null)
+			System.arraycopy(born, 0, b, 0, born.length);
+		born = b;
+	}
+
+	/**
+	 * Take an unused id, reusing the ids of clusters which have gone.
+	 */
+	private int allocate() {
+		int id;
+		if(freeCount > 0) {
+			id = free[--freeCount];
+		} else {
+			if(nextId == population.length)
+				growIds(nextId * 2);
+			id = nextId++;
+		}
+		born[id] = generation;
+		mark[id] = 0;
+		claim[id] = 0;
+		count++;
+		return id;
+	}
+
+	/**
+	 * Bring the clusters up to date with a grid.
+	 * @param grid The grid, which has had at most one step or load since the
+	 * last update
+	 */
+	public void update(CellularGrid grid) {
+		if(labels == null || grid != tracked || grid.getWidth() != width
+				|| grid.getHeight() != height || grid.isWrap() != wrap
+				|| grid.getGeneration() < generation
+				|| grid.getModifications() != modifications) {
+			rebuild(grid);
+			return;
+		}
+		generation = grid.getGeneration();
+		serial++;
+		int seedCount = 0;
+		int affectedCount = 0;
+
+		// Find the births and deaths, and the clusters they touch
+		for(int ty = 0; ty < grid.getTilesY(); ty++) {
+			int yEnd = Math.min(height, (ty + 1) * CellularGrid.TILE_HEIGHT);
+			for(int tx = 0; tx < grid.getTilesX(); tx++) {
+				if(!grid.isTileDirty(tx, ty))
+					continue;
+				for(int y = ty * CellularGrid.TILE_HEIGHT; y < yEnd; y++) {
+					long changes = grid.getChangedWord(tx, y);
+					if(changes == 0)
+						continue;
+					long cells = grid.getWord(tx, y);
+					for(long bits = changes; bits != 0; bits &= bits - 1) {
+						int b = Long.numberOfTrailingZeros(bits);
+						int x = (tx << 6) + b;
+						int i = (y * width) + x;
+						boolean alive = ((cells >>> b) & 1L) != 0;
+						int id = labels[i];
+						if(alive && id < 0) {
+							labels[i] = PENDING;
+							previous[i] = DEAD;
+							seeds = append(seeds, seedCount++, i);
+							// A birth may join the clusters around it
+							for(int ym = -1; ym < 2; ym++) {
+								int yp = y + ym;
+								if(yp < 0 || yp >= height) {
+									if(!wrap) continue;
+									yp = (yp < 0) ? height - 1 : 0;
+								}
+								for(int xm = -1; xm < 2; xm++) {
+									int xp = x + xm;
+									if(xp < 0 || xp >= width) {
+										if(!wrap) continue;
+										xp = (xp < 0) ? width - 1 : 0;
+									}
+									int n = labels[(yp * width) + xp];
+									if(n >= 0 && mark[n] != serial) {
+										mark[n] = serial;
+										affected = append(affected,
+												affectedCount++, n);
+									}
+								}
+							}
+						} else if(!alive && id >= 0) {
+							// A death may split its cluster
+							labels[i] = DEAD;
+							if(mark[id] != serial) {
+								mark[id] = serial;
+								affected = append(affected, affectedCount++,
+										id);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// Take the touched clusters apart
+		for(int a = 0; a < affectedCount; a++) {
+			int id = affected[a];
+			for(int y = top[id]; y < bottom[id]; y++) {
+				for(int x = left[id]; x < right[id]; x++) {
+					int i = (y * width) + x;
+					if(labels[i] == id) {
+						labels[i] = PENDING;
+						previous[i] = id;
+						seeds = append(seeds, seedCount++, i);
+					}
+				}
+			}
+		}
+
+		// Flood fill the loose cells into clusters again
+		for(int s = 0; s < seedCount; s++) {
+			if(labels[seeds[s]] == PENDING)
+				flood(seeds[s]);
+		}
+
+		// Clusters whose id was not taken over have gone
+		for(int a = 0; a < affectedCount; a++) {
+			int id = affected[a];
+			if(claim[id] != serial) {
+				population[id] = 0;
+				free = append(free, freeCount++, id);
+				count--;
+			}
+		}
+	}
+
+	/**
+	 * Flood fill one cluster from a pending cell, then label it.
+	 * @param start The index of the cell
+	 */
+	private void flood(int start) {
+		int size = 0, sp = 0, touchedCount = 0;
+		labels[start] = QUEUED;
+		stack = append(stack, sp++, start);
+		while(sp > 0) {
+			int i = stack[--sp];
+			component = append(component, size++, i);
+			int old = previous[i];
+			if(old >= 0) {
+				if(tally[old] == 0)
+					touched = append(touched, touchedCount++, old);
+				tally[old]++;
+			}
+			int x = i % width;
+			int y = i / width;
+			for(int ym = -1; ym < 2; ym++) {
+				int yp = y + ym;
+				if(yp < 0 || yp >= height) {
+					if(!wrap) continue;
+					yp = (yp < 0) ? height - 1 : 0;
+				}
+				for(int xm = -1; xm < 2; xm++) {
+					int xp = x + xm;
+					if(xp < 0 || xp >= width) {
+						if(!wrap) continue;
+						xp = (xp < 0) ? width - 1 : 0;
+					}
+					int n = (yp * width) + xp;
+					if(labels[n] == PENDING) {
+						labels[n] = QUEUED;
+						stack = append(stack, sp++, n);
+					}
+				}
+			}
+		}
+
+		// Keep the id of the old cluster with the most cells in this one
+		int id = -1, best = 0;
+		for(int t = 0; t < touchedCount; t++) {
+			int old = touched[t];
+			if(tally[old] > best && claim[old] != serial) {
+				id = old;
+				best = tally[old];
+			}
+			tally[old] = 0;
+		}
+		if(id < 0)
+			id = allocate();
+		claim[id] = serial;
+
+		int l = width, r = 0, u = height, d = 0;
+		for(int c = 0; c < size; c++) {
+			int i = component[c];
+			int x = i % width;
+			int y = i / width;
+			labels[i] = id;
+			l = Math.min(l, x);
+			r = Math.max(r, x + 1);
+			u = Math.min(u, y);
+			d = Math.max(d, y + 1);
+		}
+		population[id] = size;
+		left[id] = l;
+		right[id] = r;
+		top[id] = u;
+		bottom[id] = d;
+	}
+
+	/**
+	 * Analyse a grid from scratch and number its clusters with new ids.
+	 * @param grid The grid
+	 */
+	public void rebuild(CellularGrid grid) {
+		tracked = grid;
+		modifications = grid.getModifications();
+		width = grid.getWidth();
+		height = grid.getHeight();
+		wrap = grid.isWrap();
+		generation = grid.getGeneration();
+		if(labels == null || labels.length != width * height) {
+			labels = new int[width * height];
+			previous = new int[width * height];
+		}
+		clusters = grid.analyze(clusters);
+		nextId = 0;
+		freeCount = 0;
+		count = 0;
+		serial++;
+		for(int c = 0; c < clusters.getCount(); c++) {
+			int id = allocate();
+			population[id] = clusters.getPopulation(c);
+			left[id] = clusters.getLeft(c);
+			top[id] = clusters.getTop(c);
+			right[id] = clusters.getRight(c);
+			bottom[id] = clusters.getBottom(c);
+		}
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++)
+				labels[(y * width) + x] = clusters.getLabel(x, y);
+		}
+	}
+
+	/**
+	 * Get the generation the clusters were last brought up to date with.
+	 * @return The generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Get the number of clusters.
+	 * @return The number of clusters
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the number of ids which may be in use. Ids which are not in use
+	 * have a population of 0.
+	 * @return One more than the highest id
+	 */
+	public int getIdLimit() {
+		return nextId;
+	}
+
+	/**
+	 * Get the id of the cluster holding a cell.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @return The id, or -1 for a dead cell
+	 */
+	public int getId(int x, int y) {
+		return labels[(y * width) + x];
+	}
+
+	/**
+	 * Get the number of live cells in a cluster.
+	 * @param id The id of the cluster
+	 * @return The population, or 0 if the id is not in use
+	 */
+	public int getPopulation(int id) {
+		return population[id];
+	}
+
+	/**
+	 * Get the generation in which a cluster was first seen.
+	 * @param id The id of the cluster
+	 * @return The generation
+	 */
+	public long getBorn(int id) {
+		return born[id];
+	}
+
+	/**
+	 * Get the left edge of the bounding box of a cluster.
+	 * @param id The id of the cluster
+	 * @return The leftmost column
+	 */
+	public int getLeft(int id) {
+		return left[id];
+	}
+
+	/**
+	 * Get the top edge of the bounding box of a cluster.
+	 * @param id The id of the cluster
+	 * @return The top row
+	 */
+	public int getTop(int id) {
+		return top[id];
+	}
+
+	/**
+	 * Get the right edge of the bounding box of a cluster.
+	 * @param id The id of the cluster
+	 * @return The column after the rightmost
+	 */
+	public int getRight(int id) {
+		return right[id];
+	}
+
+	/**
+	 * Get the bottom edge of the bounding box of a cluster.
+	 * @param id The id of the cluster
+	 * @return The row after the lowest
+	 */
+	public int getBottom(int id) {
+		return bottom[id];
+	}
+}
@@ -0,0 +1,197 @@
+package me.dje.life;
+
+import java.util.Arrays;
+
+import me.dje.graph.DisjointSet;
+
+/**
+ * The connected clusters of live cells in a generation, as found by
+ * CellularGrid.analyze(). Cells touching in any of the eight directions are
+ * in the same cluster. Each live cell is labelled with the number of its
+ * cluster, and each cluster has a population and bounding box.
+ *
+ * Everything is held in int arrays which are kept when the object is reused
+ * for a later generation of the same grid, so analysing a board every few
+ * generations does not allocate.
+ * @author dylan
+ *
+ */
+public class Clusters {
+	private final int width, height;
+	private final int labels[];
+	private final DisjointSet set;
+	private int count;
+	private int population[];
+	private int left[], top[], right[], bottom[];
+	private long generation;
+
+	/**
+	 * Create an empty result for a grid size.
+	 * @param width The width of the grid
+	 * @param height The height of the grid
+	 */
+	public Clusters(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.labels = new int[width * height];
+		this.set = new DisjointSet(width * height);
+		grow(16);
+		clear(0);
+	}
+
+	/**
+	 * Make room for a number of clusters.
+	 */
+	private void grow(int n) {
+		population = resize(population, n);
+		left = resize(left, n);
+		top = resize(top, n);
+		right = resize(right, n);
+		bottom = resize(bottom, n);
+	}
+
+	private static int[] resize(int a[], int n) {
+		int b[] = new int[n];
+		if(a != null)
+			System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+		return b;
+	}
+
+	/**
+	 * Forget the clusters before a new generation is labelled.
+	 * @param generation The generation about to be labelled
+	 */
+	void clear(long generation) {
+		Arrays.fill(labels, -1);
+		count = 0;
+		this.generation = generation;
+	}
+
+	/**
+	 * Get the union-find structure used while labelling.
+	 */
+	DisjointSet getSet() {
+		return set;
+	}
+
+	/**
+	 * Label a live cell once its set is complete, starting a new cluster
+	 * when the cell is the first of its set to be labelled.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 */
+	void label(int x, int y) {
+		int i = (y * width) + x;
+		int root = set.find(i);
+		int c = labels[root];
+		if(c < 0) {
+			if(count == population.length)
+				grow(count * 2);
+			c = count++;
+			labels[root] = c;
+			population[c] = 0;
+			left[c] = x;
+			top[c] = y;
+			right[c] = x + 1;
+			bottom[c] = y + 1;
+		}
+		labels[i] = c;
+		population[c]++;
+		if(x < left[c])
+			left[c] = x;
+		if(x >= right[c])
+			right[c] = x + 1;
+		if(y < top[c])
+			top[c] = y;
+		if(y >= bottom[c])
+			bottom[c] = y + 1;
+	}
+
+	/**
+	 * Get the width of the grid analysed.
+	 * @return The width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the grid analysed.
+	 * @return The height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the generation which was analysed.
+	 * @return The generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Get the number of clusters.
+	 * @return The number of clusters
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the cluster holding a cell.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @return The number of the cluster, or -1 for a dead cell
+	 */
+	public int getLabel(int x, int y) {
+		return labels[(y * width) + x];
+	}
+
+	/**
+	 * Get the number of live cells in a cluster.
+	 * @param c The number of the cluster
+	 * @return The population
+	 */
+	public int getPopulation(int c) {
+		return population[c];
+	}
+
+	/**
+	 * Get the left edge of the bounding box of a cluster. On a wrapped grid
+	 * a cluster crossing an edge has a box spanning the grid.
+	 * @param c The number of the cluster
+	 * @return The leftmost column
+	 */
+	public int getLeft(int c) {
+		return left[c];
+	}
+
+	/**
+	 * Get the top edge of the bounding box of a cluster.
+	 * @param c The number of the cluster
+	 * @return The top row
+	 */
+	public int getTop(int c) {
+		return top[c];
+	}
+
+	/**
+	 * Get the right edge of the bounding box of a cluster.
+	 * @param c The number of the cluster
+	 * @return The column after the rightmost
+	 */
+	public int getRight(int c) {
+		return right[c];
+	}
+
+	/**
+	 * Get the bottom edge of the bounding box of a cluster.
+	 * @param c The number of the cluster
+	 * @return The row after the lowest
+	 */
+	public int getBottom(int c) {
+		return bottom[c];
+	}
+}
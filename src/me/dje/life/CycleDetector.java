@@ -0,0 +1,84 @@
+package me.dje.life;
+
+/**
+ * Spots a board which has settled into still lifes and oscillators by
+ * remembering the hashes of the last few generations. When the hash of a
+ * generation matches the one a fixed number of generations back, and keeps
+ * doing so for two whole periods, the board is taken to be cycling with that
+ * period.
+ * @author dylan
+ *
+ */
+public class CycleDetector {
+	/**
+	 * The fewest generations a cycle must repeat for before it is reported.
+	 */
+	private static final int MIN_CONFIRM = 4;
+	private final long history[];
+	private long seen;
+	private int candidate, streak;
+	private int period;
+
+	/**
+	 * Create a detector.
+	 * @param maxPeriod The longest period to look for
+	 */
+	public CycleDetector(int maxPeriod) {
+		if(maxPeriod < 1)
+			throw new IllegalArgumentException("Bad period " + maxPeriod);
+		history = new long[maxPeriod];
+		reset();
+	}
+
+	/**
+	 * Forget every generation seen so far.
+	 */
+	public void reset() {
+		seen = 0;
+		candidate = 0;
+		streak = 0;
+		period = 0;
+	}
+
+	/**
+	 * Add the hash of the next generation.
+	 * @param hash The hash of the generation
+	 * @return The period of the cycle the board is in, or 0 if it is not
+	 * known to be cycling
+	 */
+	public int update(long hash) {
+		int n = history.length;
+		int match = 0;
+		for(int p = 1; p <= n && p <= seen; p++) {
+			if(history[(int)((seen - p) % n)] == hash) {
+				match = p;
+				break;
+			}
+		}
+		history[(int)(seen % n)] = hash;
+		seen++;
+
+		if(match == 0) {
+			candidate = 0;
+			streak = 0;
+			period = 0;
+		} else if(match == candidate) {
+			streak++;
+		} else {
+			candidate = match;
+			streak = 1;
+			period = 0;
+		}
+		if(candidate != 0 && streak >= Math.max(MIN_CONFIRM, 2 * candidate))
+			period = candidate;
+		return period;
+	}
+
+	/**
+	 * Get the period found by the last update.
+	 * @return The period, or 0 if the board is not known to be cycling
+	 */
+	public int getPeriod() {
+		return period;
+	}
+}
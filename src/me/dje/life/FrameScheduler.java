@@ -0,0 +1,171 @@
+package me.dje.life;
+
+/**
+ * Paces the animation so that the board moves at the same number of
+ * generations per second whatever the device. The frame rate is only as
+ * high as the generation rate needs, up to MAX_FPS, and generations are owed
+ * by the time which has passed rather than counted per frame, so a slow
+ * frame is made up by taking more than one generation in the next.
+ *
+ * The cost of drawing a frame and of stepping a generation are tracked as
+ * moving averages. When frames cost more than their share of the interval
+ * the frame rate is lowered, and when the simulation can not step fast
+ * enough the generations owed are dropped instead of being caught up in a
+ * burst, so an overloaded device slows down smoothly.
+ * @author dylan
+ *
+ */
+public class FrameScheduler {
+	public static final int MAX_FPS = 30;
+	public static final int MAX_GENS_PER_FRAME = 4;
+	/**
+	 * The time always left free between frames, in milliseconds.
+	 */
+	private static final long MIN_DELAY = 5;
+	/**
+	 * The part of the frame interval drawing may take before the frame rate
+	 * is lowered.
+	 */
+	private static final double BUDGET = 0.75;
+	/**
+	 * The weight of a new sample in the moving averages.
+	 */
+	private static final double SMOOTHING = 0.125;
+
+	private int gensPerSecond;
+	private long baseInterval, interval;
+	private double frameCost, stepCost;
+	private double due;
+	private long frameStart;
+
+	/**
+	 * Create a scheduler.
+	 * @param gensPerSecond The number of generations to show each second
+	 */
+	public FrameScheduler(int gensPerSecond) {
+		setRate(gensPerSecond);
+		frameCost = 0;
+		stepCost = 0;
+		frameStart = -1;
+	}
+
+	/**
+	 * Change the number of generations shown each second.
+	 * @param gensPerSecond The new rate
+	 */
+	public void setRate(int gensPerSecond) {
+		if(gensPerSecond < 1)
+			throw new IllegalArgumentException("Bad rate " + gensPerSecond);
+		this.gensPerSecond = gensPerSecond;
+		baseInterval = 1000 / Math.min(gensPerSecond, MAX_FPS);
+		interval = Math.max(baseInterval,
+				(long)Math.ceil(frameCost / BUDGET));
+		due = 0;
+	}
+
+	/**
+	 * Get the number of generations shown each second.
+	 * @return The rate
+	 */
+	public int getRate() {
+		return gensPerSecond;
+	}
+
+	/**
+	 * Get the number of frames drawn each second when nothing is overloaded.
+	 * @return The frame rate
+	 */
+	public int getFrameRate() {
+		return Math.min(gensPerSecond, MAX_FPS);
+	}
+
+	/**
+	 * Get the current time between frames, including any slowing down.
+	 * @return The interval in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Tell the scheduler how long the simulation takes to step a generation.
+	 * @param millis The average time taken in milliseconds
+	 */
+	public void setStepCost(double millis) {
+		stepCost = millis;
+	}
+
+	/**
+	 * Get the average time taken to draw a frame.
+	 * @return The time in milliseconds
+	 */
+	public double getFrameCost() {
+		return frameCost;
+	}
+
+	/**
+	 * Get the average time taken to step a generation.
+	 * @return The time in milliseconds
+	 */
+	public double getStepCost() {
+		return stepCost;
+	}
+
+	/**
+	 * Get the most generations one frame may move on. This is lowered when
+	 * the simulation can not step that many in a frame interval.
+	 * @return The number of generations
+	 */
+	public int getGensPerFrame() {
+		if(stepCost <= 0)
+			return MAX_GENS_PER_FRAME;
+		int n = (int)(interval / stepCost);
+		return Math.max(1, Math.min(MAX_GENS_PER_FRAME, n));
+	}
+
+	/**
+	 * Start a frame and work out the generation it should show.
+	 * @param now The time in milliseconds
+	 * @param generation The generation currently shown
+	 * @return The generation wanted
+	 */
+	public long beginFrame(long now, long generation) {
+		long elapsed = (frameStart < 0) ? interval : now - frameStart;
+		frameStart = now;
+		due += (double)elapsed * gensPerSecond / 1000;
+		// Drop what can never be caught up rather than rushing ahead later
+		due = Math.min(due, getGensPerFrame());
+		return generation + (long)due;
+	}
+
+	/**
+	 * Record how many generations the frame actually moved on, which may be
+	 * less than wanted if the simulation has fallen behind.
+	 * @param generations The number of generations
+	 */
+	public void advanced(long generations) {
+		due = Math.max(0, due - generations);
+	}
+
+	/**
+	 * Finish a frame and work out how long to wait before the next one.
+	 * @param now The time in milliseconds
+	 * @return The delay in milliseconds
+	 */
+	public long endFrame(long now) {
+		long cost = now - frameStart;
+		frameCost += (cost - frameCost) * SMOOTHING;
+		interval = Math.max(baseInterval,
+				(long)Math.ceil(frameCost / BUDGET));
+		return Math.max(MIN_DELAY, interval - cost);
+	}
+
+	/**
+	 * Forget the last frame, for example while the wallpaper is hidden, so
+	 * the time away is not owed as generations.
+	 */
+	public void pause() {
+		frameStart = -1;
+		due = 0;
+	}
+}
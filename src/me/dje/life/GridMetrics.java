@@ -0,0 +1,288 @@
+package me.dje.life;
+
+/**
+ * Collects what the simulation is doing, for tuning battery use and for
+ * checking the speed of the engines. The population, births, deaths and
+ * active tiles are counted by CellularGrid as it steps, so sampling them
+ * costs nothing, and the time taken to step and to draw are gathered into
+ * histograms.
+ *
+ * A GridMetrics is not thread safe. Metrics gathered on another thread
+ * are kept there in a GridMetrics of their own and added with add().
+ * @author dylan
+ *
+ */
+public class GridMetrics {
+	private long generation;
+	private int population, births, deaths, activeTiles;
+	private long samples, totalBirths, totalDeaths, totalActiveTiles;
+	private int peakPopulation;
+	private final Histogram stepTimes, drawTimes;
+
+	/**
+	 * Counts durations in buckets which double in size, so a handful of ints
+	 * covers everything from a microsecond to over a minute.
+	 */
+	public static class Histogram {
+		/**
+		 * The number of buckets. Bucket 0 holds durations under 2
+		 * microseconds, bucket n those under 2^(n+1), and the last bucket
+		 * everything longer.
+		 */
+		public static final int BUCKETS = 28;
+		private final int counts[];
+		private long count;
+		private long totalNanos, maxNanos;
+
+		public Histogram() {
+			counts = new int[BUCKETS];
+		}
+
+		/**
+		 * Add a duration.
+		 * @param nanos The duration in nanoseconds
+		 */
+		public void add(long nanos) {
+			long micros = Math.max(1, nanos / 1000);
+			int b = 63 - Long.numberOfLeadingZeros(micros);
+			counts[Math.min(b, BUCKETS - 1)]++;
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		/**
+		 * Add every duration of another histogram.
+		 * @param other The histogram to add
+		 */
+		public void add(Histogram other) {
+			for(int b = 0; b < BUCKETS; b++)
+				counts[b] += other.counts[b];
+			count += other.count;
+			totalNanos += other.totalNanos;
+			maxNanos = Math.max(maxNanos, other.maxNanos);
+		}
+
+		/**
+		 * Forget every duration.
+		 */
+		public void clear() {
+			for(int b = 0; b < BUCKETS; b++)
+				counts[b] = 0;
+			count = 0;
+			totalNanos = 0;
+			maxNanos = 0;
+		}
+
+		/**
+		 * Get the number of durations added.
+		 * @return The count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Get the number of durations in a bucket.
+		 * @param bucket The bucket
+		 * @return The count
+		 */
+		public int getCount(int bucket) {
+			return counts[bucket];
+		}
+
+		/**
+		 * Get the upper limit of a bucket.
+		 * @param bucket The bucket
+		 * @return The limit in microseconds
+		 */
+		public static long getLimit(int bucket) {
+			return 2L << bucket;
+		}
+
+		/**
+		 * Get the average duration.
+		 * @return The average in milliseconds, or 0 if there are none
+		 */
+		public double getMean() {
+			return (count == 0) ? 0 : totalNanos / 1e6 / count;
+		}
+
+		/**
+		 * Get the longest duration.
+		 * @return The longest in milliseconds
+		 */
+		public double getMax() {
+			return maxNanos / 1e6;
+		}
+
+		/**
+		 * Estimate a percentile from the upper limit of the bucket it falls
+		 * in, so the result may be up to twice the real value, but never more
+		 * than the longest duration.
+		 * @param fraction The percentile as a fraction, such as 0.95
+		 * @return The estimate in milliseconds, or 0 if there are none
+		 */
+		public double getPercentile(double fraction) {
+			if(count == 0)
+				return 0;
+			long wanted = (long)Math.ceil(count * fraction);
+			long seen = 0;
+			for(int b = 0; b < BUCKETS - 1; b++) {
+				seen += counts[b];
+				if(seen >= wanted)
+					return Math.min(getLimit(b) / 1e3, getMax());
+			}
+			return getMax();
+		}
+
+		public String toString() {
+			return String.format("n=%d mean=%.2fms p50=%.2fms p95=%.2fms "
+					+ "max=%.2fms", count, getMean(), getPercentile(0.5),
+					getPercentile(0.95), getMax());
+		}
+	}
+
+	public GridMetrics() {
+		stepTimes = new Histogram();
+		drawTimes = new Histogram();
+	}
+
+	/**
+	 * Take the counts of the last step of a grid. This should be called
+	 * after every step, as the counts of a load cover all the generations
+	 * since the last one.
+	 * @param grid The grid
+	 */
+	public void sample(CellularGrid grid) {
+		generation = grid.getGeneration();
+		population = grid.getPopulation();
+		births = grid.getBirths();
+		deaths = grid.getDeaths();
+		activeTiles = grid.getActiveTiles();
+		samples++;
+		totalBirths += births;
+		totalDeaths += deaths;
+		totalActiveTiles += activeTiles;
+		peakPopulation = Math.max(peakPopulation, population);
+	}
+
+	/**
+	 * Record the time taken to step a generation.
+	 * @param nanos The time in nanoseconds
+	 */
+	public void addStep(long nanos) {
+		stepTimes.add(nanos);
+	}
+
+	/**
+	 * Record the time taken to draw a frame.
+	 * @param nanos The time in nanoseconds
+	 */
+	public void addDraw(long nanos) {
+		drawTimes.add(nanos);
+	}
+
+	/**
+	 * Add everything gathered by another set of metrics, for example one
+	 * filled on another thread. The latest counts are taken from the other
+	 * metrics if it has any samples.
+	 * @param other The metrics to add
+	 */
+	public void add(GridMetrics other) {
+		if(other.samples > 0) {
+			generation = other.generation;
+			population = other.population;
+			births = other.births;
+			deaths = other.deaths;
+			activeTiles = other.activeTiles;
+		}
+		samples += other.samples;
+		totalBirths += other.totalBirths;
+		totalDeaths += other.totalDeaths;
+		totalActiveTiles += other.totalActiveTiles;
+		peakPopulation = Math.max(peakPopulation, other.peakPopulation);
+		stepTimes.add(other.stepTimes);
+		drawTimes.add(other.drawTimes);
+	}
+
+	/**
+	 * Forget everything sampled so far.
+	 */
+	public void reset() {
+		samples = 0;
+		totalBirths = 0;
+		totalDeaths = 0;
+		totalActiveTiles = 0;
+		peakPopulation = 0;
+		stepTimes.clear();
+		drawTimes.clear();
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public int getPopulation() {
+		return population;
+	}
+
+	public int getBirths() {
+		return births;
+	}
+
+	public int getDeaths() {
+		return deaths;
+	}
+
+	public int getActiveTiles() {
+		return activeTiles;
+	}
+
+	/**
+	 * Get the highest population sampled since the last reset.
+	 * @return The population
+	 */
+	public int getPeakPopulation() {
+		return peakPopulation;
+	}
+
+	/**
+	 * Get the number of samples since the last reset.
+	 * @return The number of samples
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getTotalBirths() {
+		return totalBirths;
+	}
+
+	public long getTotalDeaths() {
+		return totalDeaths;
+	}
+
+	/**
+	 * Get the average number of active tiles per sample.
+	 * @return The average
+	 */
+	public double getMeanActiveTiles() {
+		return (samples == 0) ? 0 : (double)totalActiveTiles / samples;
+	}
+
+	public Histogram getStepTimes() {
+		return stepTimes;
+	}
+
+	public Histogram getDrawTimes() {
+		return drawTimes;
+	}
+
+	public String toString() {
+		return String.format("gen=%d pop=%d peak=%d births=%d deaths=%d "
+				+ "tiles=%.1f step[%s] draw[%s]", generation, population,
+				peakPopulation, totalBirths, totalDeaths, getMeanActiveTiles(),
+				stepTimes, drawTimes);
+	}
+}
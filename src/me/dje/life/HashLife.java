@@ -0,0 +1,477 @@
+package me.dje.life;
+
+/**
+ * HashLife is an alternative engine for the game of life which stores an
+ * unbounded board as a quadtree of canonical nodes. Identical squares anywhere
+ * on the board, or at any point in time, share a single node and the future
+ * of each node is memoized, so repetitive patterns can be advanced by huge
+ * numbers of generations at once.
+ *
+ * The board is centred on the origin. A pattern can be loaded from a map
+ * file, advanced with jump() or advance() and then copied back into a
+ * CellularGrid viewport for display.
+ * @author dylan
+ *
+ */
+public class HashLife {
+	private static final int MAX_LEVEL = 60;
+	private static final int MAX_NODES = 1 << 21;
+
+	private Node table[];
+	private int count, nextId;
+	private Node on, off;
+	private Node empty[];
+	private Node root;
+	private long generation;
+	private int stepLog;
+	private LifeRule rule;
+
+	/**
+	 * A square of cells 2^level wide. Nodes are canonical, two nodes with the
+	 * same children are always the same instance.
+	 */
+	private static final class Node {
+		final Node nw, ne, sw, se;
+		final int level, id;
+		final long population;
+		Node result;
+		/**
+		 * The base two logarithm of the generations the result is ahead.
+		 */
+		int resultLog;
+		Node next;
+
+		Node(int id, boolean alive) {
+			this.nw = this.ne = this.sw = this.se = null;
+			this.level = 0;
+			this.id = id;
+			this.population = alive ? 1 : 0;
+		}
+
+		Node(int id, Node nw, Node ne, Node sw, Node se) {
+			this.nw = nw;
+			this.ne = ne;
+			this.sw = sw;
+			this.se = se;
+			this.level = nw.level + 1;
+			this.id = id;
+			this.population = nw.population + ne.population
+					+ sw.population + se.population;
+		}
+	}
+
+	/**
+	 * Create an empty board.
+	 */
+	public HashLife() {
+		table = new Node[1 << 12];
+		count = 0;
+		nextId = 2;
+		off = new Node(0, false);
+		on = new Node(1, true);
+		empty = new Node[MAX_LEVEL + 1];
+		empty[0] = off;
+		stepLog = -1;
+		generation = 0;
+		rule = LifeRule.CONWAY;
+		root = emptyNode(3);
+	}
+
+	/**
+	 * Create a board containing the points of a map.
+	 * @param map The map to load, with its origin at the board origin
+	 */
+	public HashLife(CellularMapFile.Map map) {
+		this();
+		for(int i = 0; i < map.size(); i++) {
+			set(map.getX(i), map.getY(i));
+		}
+	}
+
+	/**
+	 * Get the canonical node for the given quadrants.
+	 */
+	private Node join(Node nw, Node ne, Node sw, Node se) {
+		int h = hash(nw.id, ne.id, sw.id, se.id);
+		int i = h & (table.length - 1);
+		for(Node n = table[i]; n != null; n = n.next) {
+			if(n.nw == nw && n.ne == ne && n.sw == sw && n.se == se)
+				return n;
+		}
+		Node n = new Node(nextId++, nw, ne, sw, se);
+		n.next = table[i];
+		table[i] = n;
+		if(++count > table.length - (table.length >>> 2))
+			resize();
+		return n;
+	}
+
+	private static int hash(int a, int b, int c, int d) {
+		int h = a * 0x9E3779B1;
+		h = (h ^ b) * 0x85EBCA6B;
+		h = (h ^ c) * 0xC2B2AE35;
+		h = (h ^ d) * 0x9E3779B1;
+		return h ^ (h >>> 15);
+	}
+
+	private void resize() {
+		Node old[] = table;
+		table = new Node[old.length << 1];
+		for(Node head : old) {
+			Node n = head;
+			while(n != null) {
+				Node next = n.next;
+				int i = hash(n.nw.id, n.ne.id, n.sw.id, n.se.id)
+						& (table.length - 1);
+				n.next = table[i];
+				table[i] = n;
+				n = next;
+			}
+		}
+	}
+
+	/**
+	 * Get an empty node of the given level.
+	 */
+	private Node emptyNode(int level) {
+		if(empty[level] == null) {
+			Node e = emptyNode(level - 1);
+			empty[level] = join(e, e, e, e);
+		}
+		return empty[level];
+	}
+
+	/**
+	 * Surround a node with empty space, doubling its size while keeping it
+	 * centred.
+	 */
+	private Node expand(Node n) {
+		Node e = emptyNode(n.level - 1);
+		return join(join(e, e, e, n.nw), join(e, e, n.ne, e),
+				join(e, n.sw, e, e), join(n.se, e, e, e));
+	}
+
+	/**
+	 * Get the centre square of a node, half the width of the node.
+	 */
+	private Node centre(Node n) {
+		return join(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+	}
+
+	/**
+	 * Get the centre square of the two nodes side by side.
+	 */
+	private Node centreH(Node w, Node e) {
+		return join(w.ne, e.nw, w.se, e.sw);
+	}
+
+	/**
+	 * Get the centre square of the two nodes one above the other.
+	 */
+	private Node centreV(Node n, Node s) {
+		return join(n.sw, n.se, s.nw, s.ne);
+	}
+
+	/**
+	 * Calculate the next generation of the centre of a 4x4 node.
+	 */
+	private Node base(Node n) {
+		int bits = 0;
+		for(int y = 0; y < 4; y++) {
+			for(int x = 0; x < 4; x++) {
+				if(cell(n, x, y))
+					bits |= 1 << ((y * 4) + x);
+			}
+		}
+		return join(baseCell(bits, 1, 1), baseCell(bits, 2, 1),
+				baseCell(bits, 1, 2), baseCell(bits, 2, 2));
+	}
+
+	private Node baseCell(int bits, int x, int y) {
+		int val = 0;
+		for(int ym = -1; ym < 2; ym++) {
+			for(int xm = -1; xm < 2; xm++) {
+				if((xm != 0 || ym != 0)
+						&& (bits & (1 << (((y + ym) * 4) + x + xm))) != 0)
+					val++;
+			}
+		}
+		boolean alive = (bits & (1 << ((y * 4) + x))) != 0;
+		return rule.next(alive, val) ? on : off;
+	}
+
+	/**
+	 * Read a cell from a node, relative to its top left corner.
+	 */
+	private boolean cell(Node n, long x, long y) {
+		while(n.level > 0) {
+			if(n.population == 0)
+				return false;
+			long half = 1L << (n.level - 1);
+			if(y < half) {
+				n = (x < half) ? n.nw : n.ne;
+			} else {
+				n = (x < half) ? n.sw : n.se;
+				y -= half;
+			}
+			if(x >= half)
+				x -= half;
+		}
+		return n == on;
+	}
+
+	/**
+	 * Set a cell in a node, relative to its top left corner.
+	 */
+	private Node setCell(Node n, long x, long y) {
+		if(n.level == 0)
+			return on;
+		long half = 1L << (n.level - 1);
+		if(y < half) {
+			if(x < half)
+				return join(setCell(n.nw, x, y), n.ne, n.sw, n.se);
+			return join(n.nw, setCell(n.ne, x - half, y), n.sw, n.se);
+		}
+		if(x < half)
+			return join(n.nw, n.ne, setCell(n.sw, x, y - half), n.se);
+		return join(n.nw, n.ne, n.sw, setCell(n.se, x - half, y - half));
+	}
+
+	/**
+	 * Calculate the centre of a node, half its width, 2^stepLog generations
+	 * into the future. The node must be at least two levels above stepLog.
+	 */
+	private Node result(Node n) {
+		// A node can move at most 2^(level - 2) generations, so its result
+		// is the same for every larger step and survives a change of step
+		int log = Math.min(stepLog, n.level - 2);
+		if(n.result != null && n.resultLog == log)
+			return n.result;
+		if(n.population == 0)
+			return emptyNode(n.level - 1);
+		Node r;
+		if(n.level == 2) {
+			r = base(n);
+		} else {
+			Node n00 = n.nw, n01 = centreH(n.nw, n.ne), n02 = n.ne;
+			Node n10 = centreV(n.nw, n.sw), n11 = centre(n);
+			Node n12 = centreV(n.ne, n.se);
+			Node n20 = n.sw, n21 = centreH(n.sw, n.se), n22 = n.se;
+			if(stepLog >= n.level - 2) {
+				// Full speed, two half steps
+				n00 = result(n00); n01 = result(n01); n02 = result(n02);
+				n10 = result(n10); n11 = result(n11); n12 = result(n12);
+				n20 = result(n20); n21 = result(n21); n22 = result(n22);
+			} else {
+				// Only the last levels of the tree move forward in time
+				n00 = centre(n00); n01 = centre(n01); n02 = centre(n02);
+				n10 = centre(n10); n11 = centre(n11); n12 = centre(n12);
+				n20 = centre(n20); n21 = centre(n21); n22 = centre(n22);
+			}
+			r = join(result(join(n00, n01, n10, n11)),
+					result(join(n01, n02, n11, n12)),
+					result(join(n10, n11, n20, n21)),
+					result(join(n11, n12, n21, n22)));
+		}
+		n.result = r;
+		n.resultLog = log;
+		return r;
+	}
+
+	/**
+	 * Determine if all of the cells of the root are within its centre
+	 * quarter, so that nothing can escape the result of a step.
+	 */
+	private boolean padded(Node n) {
+		return n.level >= 3 && n.population == n.nw.se.se.population
+				+ n.ne.sw.sw.population + n.sw.ne.ne.population
+				+ n.se.nw.nw.population;
+	}
+
+	/**
+	 * Drop every node which is not reachable from the root, along with all
+	 * memoized results.
+	 */
+	private void collect() {
+		table = new Node[table.length];
+		count = 0;
+		for(int i = 1; i < empty.length && empty[i] != null; i++) {
+			rehash(empty[i]);
+		}
+		rehash(root);
+	}
+
+	private void rehash(Node n) {
+		if(n.level == 0)
+			return;
+		int i = hash(n.nw.id, n.ne.id, n.sw.id, n.se.id) & (table.length - 1);
+		for(Node e = table[i]; e != null; e = e.next) {
+			if(e == n)
+				return;
+		}
+		rehash(n.nw);
+		rehash(n.ne);
+		rehash(n.sw);
+		rehash(n.se);
+		n.result = null;
+		n.next = table[i];
+		table[i] = n;
+		if(++count > table.length - (table.length >>> 2))
+			resize();
+	}
+
+	/**
+	 * Clear every memoized result, required when the rule changes.
+	 */
+	private void clearResults() {
+		for(Node head : table) {
+			for(Node n = head; n != null; n = n.next)
+				n.result = null;
+		}
+	}
+
+	/**
+	 * Set the cell at the specified coordinate, growing the board as needed.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 */
+	public void set(long x, long y) {
+		while(true) {
+			long half = 1L << (root.level - 1);
+			if(x >= -half && x < half && y >= -half && y < half)
+				break;
+			if(root.level >= MAX_LEVEL)
+				throw new IllegalArgumentException("Cell out of range");
+			root = expand(root);
+		}
+		long half = 1L << (root.level - 1);
+		root = setCell(root, x + half, y + half);
+	}
+
+	/**
+	 * Get the status of the specified cell.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @return The value of the cell
+	 */
+	public boolean get(long x, long y) {
+		long half = 1L << (root.level - 1);
+		if(x < -half || x >= half || y < -half || y >= half)
+			return false;
+		return cell(root, x + half, y + half);
+	}
+
+	/**
+	 * Advance the board by 2^k generations in a single step.
+	 * @param k The base two logarithm of the number of generations
+	 */
+	public void jump(int k) {
+		if(k < 0 || k > MAX_LEVEL - 3)
+			throw new IllegalArgumentException("Step out of range: " + k);
+		if(count > MAX_NODES)
+			collect();
+		stepLog = k;
+		while(root.level < k + 3 || !padded(root)) {
+			if(root.level >= MAX_LEVEL)
+				throw new IllegalStateException("Pattern too large");
+			root = expand(root);
+		}
+		root = result(root);
+		generation += 1L << k;
+	}
+
+	/**
+	 * Advance the board by any number of generations, in as few jumps as
+	 * possible. Only the results of nodes large enough to move further than
+	 * a smaller jump are worked out again between jumps.
+	 * @param n The number of generations
+	 */
+	public void advance(long n) {
+		for(int k = 0; n != 0; k++, n >>>= 1) {
+			if((n & 1) != 0)
+				jump(k);
+		}
+	}
+
+	/**
+	 * Change the rule used to advance the board. Rules where cells are born
+	 * with no neighbours would fill the infinite board and are not allowed,
+	 * and neither are Generations rules.
+	 * @param rule The new rule
+	 */
+	public void setRule(LifeRule rule) {
+		if(rule.born(0))
+			throw new IllegalArgumentException("B0 rules are not supported");
+		if(rule.getStates() > 2)
+			throw new IllegalArgumentException(
+					"Generations rules are not supported");
+		this.rule = rule;
+		clearResults();
+	}
+
+	/**
+	 * Get the rule used to advance the board.
+	 * @return The rule
+	 */
+	public LifeRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Get the number of generations the board has been advanced by.
+	 * @return The generation count
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Get the number of live cells on the whole board.
+	 * @return The population
+	 */
+	public long getPopulation() {
+		return root.population;
+	}
+
+	/**
+	 * Copy a window of the board into a new grid.
+	 * @param left The board coordinate of the left edge of the window
+	 * @param top The board coordinate of the top edge of the window
+	 * @param width The width of the window
+	 * @param height The height of the window
+	 * @param wrap The wrap setting of the new grid
+	 * @return The new grid
+	 */
+	public CellularGrid toGrid(long left, long top, int width, int height,
+			boolean wrap) {
+		CellularGrid grid = new CellularGrid(width, height, wrap);
+		long half = 1L << (root.level - 1);
+		copy(root, -half - left, -half - top, grid);
+		return grid;
+	}
+
+	/**
+	 * Copy the live cells of a node into a grid.
+	 * @param n The node
+	 * @param x The grid position of the left edge of the node
+	 * @param y The grid position of the top edge of the node
+	 * @param grid The destination grid
+	 */
+	private void copy(Node n, long x, long y, CellularGrid grid) {
+		if(n.population == 0)
+			return;
+		long size = 1L << n.level;
+		if(x >= grid.getWidth() || y >= grid.getHeight()
+				|| x + size <= 0 || y + size <= 0)
+			return;
+		if(n.level == 0) {
+			grid.set((int)x, (int)y);
+			return;
+		}
+		long half = size >>> 1;
+		copy(n.nw, x, y, grid);
+		copy(n.ne, x + half, y, grid);
+		copy(n.sw, x, y + half, grid);
+		copy(n.se, x + half, y + half, grid);
+	}
+}
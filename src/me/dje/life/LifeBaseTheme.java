@@ -2,10 +2,14 @@ package me.dje.life;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 
 /**
- * 
+ * The base of the themes. Cells are drawn into a back-buffer the size of the
+ * surface, and after the first frame only the cells which changed in the 
+ * last step are drawn again before the buffer is copied to the surface.
  * @author dylan
  *
  */
@@ -15,6 +19,15 @@ public abstract class LifeBaseTheme
 				foreground;
 	private boolean inverted = false, 
 					blurred = false;
+	private boolean redrawAll = true;
+	private long drawnGeneration = -1;
+	private final int bounds[] = new int[4];
+	private Bitmap buffer;
+	private Canvas bufferCanvas;
+	private boolean redrawCells = true;
+	private Bitmap sprites;
+	private int spriteSize = 0;
+	private final Rect spriteSrc = new Rect(), spriteDest = new Rect();
 
 	protected CellularGrid grid;
 	protected Context context;
@@ -41,27 +54,245 @@ public abstract class LifeBaseTheme
 	 */
 	public void reset(CellularGrid grid) {
 		this.grid = grid;
+		invalidate();
 	}
 	
 	/**
-	 * Clear the current canvas.
+	 * Schedule a redraw of every cell and of the whole surface for the next
+	 * frame.
+	 */
+	public void invalidate() {
+		redrawAll = true;
+		redrawCells = true;
+	}
+	
+	/**
+	 * Schedule a redraw of every cell into the back-buffer, without drawing
+	 * the whole surface again.
+	 */
+	protected void invalidateCells() {
+		redrawCells = true;
+	}
+	
+	/**
+	 * Determine whether the next updateCells() draws every cell.
+	 * @return True if every cell is drawn
+	 */
+	protected boolean isRedrawingCells() {
+		return redrawCells;
+	}
+	
+	/**
+	 * Take over the back-buffer of another theme, so that switching themes
+	 * does not allocate a new one. Every cell is drawn again by this theme.
+	 * @param from The theme being replaced
+	 */
+	public void takeBuffer(LifeBaseTheme from) {
+		if(buffer != null || from.buffer == null)
+			return;
+		buffer = from.buffer;
+		bufferCanvas = from.bufferCanvas;
+		from.buffer = null;
+		from.bufferCanvas = null;
+		invalidate();
+	}
+	
+	/**
+	 * Recycle the bitmaps of the theme when it is replaced, rather than 
+	 * waiting for them to be collected. The theme allocates them again if it
+	 * is drawn after this.
+	 */
+	public void release() {
+		if(buffer != null)
+			buffer.recycle();
+		buffer = null;
+		bufferCanvas = null;
+		if(sprites != null)
+			sprites.recycle();
+		sprites = null;
+		invalidateSprites();
+	}
+	
+	/**
+	 * Work out the part of the surface to draw for the next frame. This is
+	 * the area of the cells which changed in the last step, or the whole 
+	 * surface after anything which changed the look of the theme.
+	 * @param dirty Receives the area in pixels
+	 * @param width The width of the surface
+	 * @param height The height of the surface
+	 * @return False if nothing needs to be drawn
+	 */
+	public boolean getDirtyRect(Rect dirty, int width, int height) {
+		if(redrawAll) {
+			redrawAll = false;
+			drawnGeneration = grid.getGeneration();
+			dirty.set(0, 0, width, height);
+			return true;
+		}
+		if(grid.getGeneration() == drawnGeneration 
+				|| !grid.getChangedBounds(bounds))
+			return false;
+		drawnGeneration = grid.getGeneration();
+		int cell = width / grid.getWidth();
+		dirty.set(bounds[0] * cell, bounds[1] * cell, bounds[2] * cell, 
+				bounds[3] * cell);
+		return dirty.intersect(0, 0, width, height);
+	}
+	
+	/**
+	 * Get the number of different cell images the theme draws. Themes which
+	 * draw through sprites override this along with renderSprite().
+	 * @return The number of sprites
+	 */
+	protected int getSpriteCount() {
+		return 0;
+	}
+	
+	/**
+	 * Render one cell image into the sprite atlas. The canvas is clipped to
+	 * the cell, so a blurred paint can not spill into its neighbours.
+	 * @param c The canvas of the atlas
+	 * @param sprite The number of the sprite
+	 * @param cell The area of the cell in the atlas
+	 */
+	protected void renderSprite(Canvas c, int sprite, Rect cell) {
+		
+	}
+	
+	/**
+	 * Render every sprite into the atlas if the cell size has changed or the
+	 * sprites have been invalidated. This must be called before 
+	 * drawSprite() in each frame.
+	 * @param cellSize The size of a cell in pixels
+	 */
+	protected void prepareSprites(int cellSize) {
+		if(sprites != null && spriteSize == cellSize)
+			return;
+		if(sprites != null)
+			sprites.recycle();
+		int count = getSpriteCount();
+		sprites = Bitmap.createBitmap(count * cellSize, cellSize, 
+				Bitmap.Config.ARGB_8888);
+		Canvas c = new Canvas(sprites);
+		for(int i = 0; i < count; i++) {
+			spriteDest.set(i * cellSize, 0, (i + 1) * cellSize, cellSize);
+			c.save();
+			c.clipRect(spriteDest);
+			renderSprite(c, i, spriteDest);
+			c.restore();
+		}
+		spriteSize = cellSize;
+	}
+	
+	/**
+	 * Throw away the rendered sprites so that they are rendered again with
+	 * the current paints before the next frame.
+	 */
+	protected void invalidateSprites() {
+		spriteSize = 0;
+	}
+	
+	/**
+	 * Copy a sprite onto a canvas.
+	 * @param c The canvas to draw on
+	 * @param sprite The number of the sprite
+	 * @param left The position of the cell in pixels
+	 * @param top The position of the cell in pixels
+	 */
+	protected void drawSprite(Canvas c, int sprite, int left, int top) {
+		int size = spriteSize;
+		spriteSrc.set(sprite * size, 0, (sprite + 1) * size, size);
+		spriteDest.set(left, top, left + size, top + size);
+		c.drawBitmap(sprites, spriteSrc, spriteDest, null);
+	}
+	
+	/**
+	 * Clear the current canvas, drawing every cell again.
 	 * @param c The canvas to clear.
 	 */
-	abstract public void clear(Canvas c);
+	public void clear(Canvas c) {
+		invalidate();
+		draw(c);
+	}
 	
 	/**
-	 * Draw the graphics on the canvas.
+	 * Draw the graphics on the canvas. The changed cells are drawn into the
+	 * back-buffer, which is then copied to the canvas.
 	 * @param c The canvas to draw on.
 	 */
-	abstract public void draw(Canvas c);
+	public void draw(Canvas c) {
+		int cellSize = c.getWidth() / grid.getWidth();
+		if(buffer == null || buffer.getWidth() != c.getWidth() 
+				|| buffer.getHeight() != c.getHeight()) {
+			if(buffer != null)
+				buffer.recycle();
+			buffer = Bitmap.createBitmap(c.getWidth(), c.getHeight(), 
+					Bitmap.Config.ARGB_8888);
+			bufferCanvas = new Canvas(buffer);
+			redrawCells = true;
+		}
+		if(getSpriteCount() > 0)
+			prepareSprites(cellSize);
+		if(redrawCells)
+			bufferCanvas.drawColor(0xFF000000);
+		updateCells(bufferCanvas, cellSize);
+		c.drawBitmap(buffer, 0, 0, null);
+	}
+	
+	/**
+	 * Call drawCell() for every cell which changed in the last step, or for
+	 * every cell after invalidate(). The changes are read a word at a time
+	 * from the dirty tiles only.
+	 * @param target The canvas passed on to drawCell()
+	 * @param cellSize The size of a cell in pixels
+	 */
+	protected void updateCells(Canvas target, int cellSize) {
+		boolean all = redrawCells;
+		int width = grid.getWidth(), height = grid.getHeight();
+		for(int ty = 0; ty < grid.getTilesY(); ty++) {
+			int yEnd = Math.min(height, (ty + 1) * CellularGrid.TILE_HEIGHT);
+			for(int tx = 0; tx < grid.getTilesX(); tx++) {
+				if(!all && !grid.isTileDirty(tx, ty))
+					continue;
+				int x0 = tx * CellularGrid.TILE_WIDTH;
+				int end = Math.min(CellularGrid.TILE_WIDTH, width - x0);
+				for(int y = ty * CellularGrid.TILE_HEIGHT; y < yEnd; y++) {
+					long changes = all ? -1L : grid.getChangedWord(tx, y);
+					if(changes == 0)
+						continue;
+					long cells = grid.getWord(tx, y);
+					for(long bits = changes; bits != 0; bits &= bits - 1) {
+						int b = Long.numberOfTrailingZeros(bits);
+						if(b >= end)
+							break;
+						drawCell(target, x0 + b, y, 
+								((cells >>> b) & 1L) != 0, cellSize);
+					}
+				}
+			}
+		}
+		redrawCells = false;
+	}
 	
 	/**
-	 * Optional rotation method called when the device is rotated.
+	 * Draw a single cell, covering the whole of its square.
+	 * @param c The canvas to draw on
+	 * @param x The horizontal position of the cell
+	 * @param y The vertical position of the cell
+	 * @param alive The value of the cell
+	 * @param cellSize The size of a cell in pixels
+	 */
+	abstract protected void drawCell(Canvas c, int x, int y, boolean alive, 
+			int cellSize);
+	
+	/**
+	 * Called when the device is rotated. The back-buffer is resized on the
+	 * next frame and every cell is drawn again.
 	 * @param width The new width
 	 * @param height The new height
 	 */
 	public void rotate(int width, int height) {
-		
+		invalidate();
 	}
 	
 	@Override
@@ -70,7 +301,8 @@ public abstract class LifeBaseTheme
 		foreground = prefs.getInt("foreground", 0xFF11EE11);
 		inverted = prefs.getBoolean("inverted", inverted);
 		blurred  = prefs.getBoolean("blurred", blurred);
-		
+		invalidateSprites();
+		invalidate();
 	}
 	
 	/**
@@ -0,0 +1,190 @@
+package me.dje.life;
+
+/**
+ * A Life-like rule, describing how many live neighbours cause a dead cell to
+ * be born and a live cell to survive. Rules are written in B/S notation, for
+ * example B3/S23 for Conway's game of life or B36/S23 for HighLife, and the
+ * older S/B notation (23/3) is also understood.
+ *
+ * A third part gives the number of states of a Generations rule, such as
+ * B2/S/C3 for Brian's Brain. Live cells which do not survive then spend the
+ * extra states dying, when they neither count as neighbours nor can be born
+ * again.
+ *
+ * A rule is parsed once into a lookup table indexed by the cell state and
+ * its neighbour count, and every engine works from the same rule object.
+ * @author dylan
+ *
+ */
+public class LifeRule {
+	public static final LifeRule CONWAY = parse("B3/S23");
+	private final int birth, survival, states;
+	private final boolean table[];
+
+	/**
+	 * Create a rule from bit masks of neighbour counts.
+	 * @param birth Bit n is set if a dead cell with n neighbours is born
+	 * @param survival Bit n is set if a live cell with n neighbours survives
+	 * @param states The number of cell states, 2 for a Life-like rule
+	 */
+	public LifeRule(int birth, int survival, int states) {
+		if(((birth | survival) & ~0x1FF) != 0)
+			throw new IllegalArgumentException("Neighbour count out of range");
+		if(states < 2 || states > 255)
+			throw new IllegalArgumentException("State count out of range");
+		this.birth = birth;
+		this.survival = survival;
+		this.states = states;
+		this.table = new boolean[18];
+		for(int n = 0; n < 9; n++) {
+			table[n] = (birth & (1 << n)) != 0;
+			table[9 + n] = (survival & (1 << n)) != 0;
+		}
+	}
+	
+	public LifeRule(int birth, int survival) {
+		this(birth, survival, 2);
+	}
+
+	/**
+	 * Parse a rule in B/S or S/B notation.
+	 * @param rule The rule string
+	 * @return The rule
+	 * @throws IllegalArgumentException If the rule can not be parsed
+	 */
+	public static LifeRule parse(String rule) {
+		String parts[] = rule.trim().split("/", -1);
+		if(parts.length != 2 && parts.length != 3)
+			throw new IllegalArgumentException("Bad rule: " + rule);
+		int states = 2;
+		if(parts.length == 3) {
+			String c = parts[2];
+			if(c.length() > 0 && Character.toUpperCase(c.charAt(0)) == 'C')
+				c = c.substring(1);
+			try {
+				states = Integer.parseInt(c);
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Bad rule: " + rule);
+			}
+		}
+		String b, s;
+		if(parts[0].length() > 0
+				&& Character.toUpperCase(parts[0].charAt(0)) == 'B') {
+			b = parts[0];
+			s = parts[1];
+		} else if(parts[0].length() > 0
+				&& Character.toUpperCase(parts[0].charAt(0)) == 'S') {
+			s = parts[0];
+			b = parts[1];
+		} else {
+			// S/B notation without letters
+			s = "S" + parts[0];
+			b = "B" + parts[1];
+		}
+		if(b.length() == 0 || Character.toUpperCase(b.charAt(0)) != 'B'
+				|| s.length() == 0
+				|| Character.toUpperCase(s.charAt(0)) != 'S')
+			throw new IllegalArgumentException("Bad rule: " + rule);
+		return new LifeRule(counts(b, rule), counts(s, rule), states);
+	}
+
+	/**
+	 * Convert a list of digits following a letter into a bit mask.
+	 */
+	private static int counts(String digits, String rule) {
+		int mask = 0;
+		for(int i = 1; i < digits.length(); i++) {
+			int n = digits.charAt(i) - '0';
+			if(n < 0 || n > 8)
+				throw new IllegalArgumentException("Bad rule: " + rule);
+			mask |= 1 << n;
+		}
+		return mask;
+	}
+
+	/**
+	 * Get the next state of a cell.
+	 * @param alive The current state of the cell
+	 * @param count The number of live neighbours
+	 * @return True if the cell is alive in the next generation
+	 */
+	public boolean next(boolean alive, int count) {
+		return table[(alive ? 9 : 0) + count];
+	}
+
+	/**
+	 * Determine whether a dead cell is born.
+	 * @param count The number of live neighbours
+	 * @return True if the cell is born
+	 */
+	public boolean born(int count) {
+		return table[count];
+	}
+
+	/**
+	 * Determine whether a live cell survives.
+	 * @param count The number of live neighbours
+	 * @return True if the cell survives
+	 */
+	public boolean survives(int count) {
+		return table[9 + count];
+	}
+
+	/**
+	 * Get the number of states a cell can be in.
+	 * @return 2 for a Life-like rule, more for a Generations rule
+	 */
+	public int getStates() {
+		return states;
+	}
+
+	/**
+	 * Get the birth counts as a bit mask.
+	 * @return Bit n is set if a cell is born with n neighbours
+	 */
+	public int getBirth() {
+		return birth;
+	}
+
+	/**
+	 * Get the survival counts as a bit mask.
+	 * @return Bit n is set if a cell survives with n neighbours
+	 */
+	public int getSurvival() {
+		return survival;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof LifeRule))
+			return false;
+		LifeRule r = (LifeRule)o;
+		return r.birth == birth && r.survival == survival
+				&& r.states == states;
+	}
+
+	@Override
+	public int hashCode() {
+		return (states << 18) | (birth << 9) | survival;
+	}
+
+	/**
+	 * Get the rule in B/S notation.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("B");
+		for(int n = 0; n < 9; n++) {
+			if((birth & (1 << n)) != 0)
+				sb.append(n);
+		}
+		sb.append("/S");
+		for(int n = 0; n < 9; n++) {
+			if((survival & (1 << n)) != 0)
+				sb.append(n);
+		}
+		if(states > 2)
+			sb.append("/C").append(states);
+		return sb.toString();
+	}
+}
@@ -1,8 +1,18 @@
 package me.dje.life;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.SystemClock;
 import android.service.wallpaper.WallpaperService;
@@ -13,6 +23,16 @@ import android.view.SurfaceHolder;
 public class LifeWallpaper extends WallpaperService {
 	public static final String TAG = "LifeWallpaper";
 	public static final String SHARED_PREFS_NAME = "droid_life_preferences";
+	public static final String SNAPSHOT_NAME = "board.snapshot";
+	/**
+	 * The generations per second shown while an idle board is cycling.
+	 */
+	public static final int IDLE_RATE = 1;
+	/**
+	 * The time between logging the metrics of the simulation, in
+	 * milliseconds.
+	 */
+	public static final long METRICS_INTERVAL = 60000;
 
 	@Override
 	public Engine onCreateEngine() {
@@ -24,10 +44,19 @@ public class LifeWallpaper extends WallpaperService {
 		
 		/* Configs */
 		private int cSize = 10, cFPS = 10;
-		private boolean wrapped = false;
+		private boolean wrapped = false, aging = false;
+		private String stagnation = "reseed";
+		private LifeRule rule = LifeRule.CONWAY;
 		
+		private CellularMapFile maps = null;
 		private CellularGrid cg = null;
+		private ByteBuffer snapshot = null;
+		private Simulation sim = null;
 		private ThemeManager theme = null;
+		private FrameScheduler scheduler;
+		private final GridMetrics metrics = new GridMetrics();
+		private long metricsStart;
+		private final Rect dirty = new Rect();
 		private Handler handler;		
 		private Context context;
 		
@@ -39,6 +68,7 @@ public class LifeWallpaper extends WallpaperService {
 			this.context = context;
 			handler = new Handler();
 			theme = new ThemeManager(this.context);
+			scheduler = new FrameScheduler(cFPS);
 			SharedPreferences prefs = getSharedPreferences(SHARED_PREFS_NAME, 
 					0);
 			prefs.registerOnSharedPreferenceChangeListener(this);
@@ -55,29 +85,74 @@ public class LifeWallpaper extends WallpaperService {
 			Canvas c = null;
 			long startTime = SystemClock.uptimeMillis();
 			
+			// Pick up the generations due before locking the surface
+			long target = scheduler.beginFrame(startTime, 
+					(cg != null) ? cg.getGeneration() : 0);
+			if(sim != null) {
+				// Slow right down while an idle board repeats itself
+				int rate = (sim.getPeriod() != 0 && stagnation.equals("idle"))
+						? IDLE_RATE : cFPS;
+				if(rate != scheduler.getRate())
+					scheduler.setRate(rate);
+				long before = cg.getGeneration();
+				sim.acquire(target, cg);
+				scheduler.setStepCost(sim.getStepCost());
+				scheduler.advanced(cg.getGeneration() - before);
+			}
+			
 			try {
-				c = holder.lockCanvas();
-				if(c != null) {
-					if(cg == null) {
-						try {
-						cg = new CellularGrid(
-								new CellularMapFile(context, "life.points")
-									.getPoints("gosper"),
-								(int)Math.ceil(c.getWidth()/cSize), 
-								(int)Math.ceil(c.getHeight()/cSize),
-								this.wrapped);
-						} catch(Exception e) {
-							Log.e(TAG, "Broken: " + e);
+				if(cg != null) {
+					// Only lock the area which changed, and skip the frame 
+					// entirely if nothing did
+					Rect frame = holder.getSurfaceFrame();
+					if(theme.getDirtyRect(dirty, frame.width(), 
+							frame.height())) {
+						// The locked area may be grown, but the clip still 
+						// limits drawing to it
+						c = holder.lockCanvas(dirty);
+						if(c != null) {
+							long drawStart = System.nanoTime();
+							theme.draw(c);
+							metrics.addDraw(System.nanoTime() - drawStart);
+						} else {
+							theme.invalidate();
+						}
+					}
+				} else {
+					c = holder.lockCanvas();
+					if(c != null) {
+						int width = (int)Math.ceil(c.getWidth()/cSize);
+						int height = (int)Math.ceil(c.getHeight()/cSize);
+						CellularGrid model = restoreState(width, height);
+						if(model == null) {
+							try {
+								model = new CellularGrid(
+										loadMaps().getPoints("gosper"),
+										width, height, this.wrapped);
+							} catch(Exception e) {
+								Log.e(TAG, "Broken: " + e);
+							}
+						}
+						if(model == null) {
+							// Without the maps start from a random board
+							model = new CellularGrid(width, height, 
+									this.wrapped);
+							model.randomize();
 						}
-						//cg.randomize();
+						model.setRule(rule);
+						model.setAgeTracking(aging);
+						cg = new CellularGrid(model.getWidth(), 
+								model.getHeight(), model);
+						sim = new Simulation(model, 
+								FrameScheduler.MAX_GENS_PER_FRAME + 1);
+						sim.setCyclePolicy(cyclePolicy());
+						sim.start();
+						metrics.reset();
+						metricsStart = SystemClock.uptimeMillis();
 						theme.setTheme(null, cg);
 						theme.clear(c);
 					}
-					
-					theme.draw(c);
-					cg.step();
 				}
-				
 			} catch(IllegalArgumentException e) {
 				Log.d(TAG, "Caught exception: " + e);
 			} finally {
@@ -88,15 +163,127 @@ public class LifeWallpaper extends WallpaperService {
 				}
 			}
 			
+			if(sim != null 
+					&& SystemClock.uptimeMillis() - metricsStart 
+					>= METRICS_INTERVAL) {
+				logMetrics();
+			}
+			
 			handler.removeCallbacks(this);
 			if (this.isVisible()) {
-				long delay = (1000 / cFPS) - (SystemClock.uptimeMillis() 
-						- startTime);
-				handler.postDelayed(this, (delay > 0)? delay : 1);
+				handler.postDelayed(this, 
+						scheduler.endFrame(SystemClock.uptimeMillis()));
+			} else {
+				scheduler.pause();
 			}
 
 		}
 		
+		/**
+		 * Log the metrics gathered since the last time and start again.
+		 */
+		private void logMetrics() {
+			sim.drainMetrics(metrics);
+			if(metrics.getSamples() > 0)
+				Log.d(TAG, "Metrics: " + metrics);
+			metrics.reset();
+			metricsStart = SystemClock.uptimeMillis();
+		}
+		
+		/**
+		 * Get the maps from the map file. The parsed maps are kept in a 
+		 * compiled file in the cache directory, which is rebuilt when the 
+		 * application is updated, and once loaded they are kept for as long 
+		 * as the engine.
+		 * @return The maps
+		 * @throws Exception If the map file can not be read
+		 */
+		private CellularMapFile loadMaps() throws Exception {
+			if(maps != null)
+				return maps;
+			File compiled = new File(context.getCacheDir(), "life.points.bin");
+			long stamp = 0;
+			try {
+				stamp = context.getPackageManager().getPackageInfo(
+						context.getPackageName(), 0).versionCode;
+			} catch(PackageManager.NameNotFoundException e) {
+				Log.e(TAG, "No package info: " + e);
+			}
+			try {
+				maps = CellularMapFile.read(compiled, stamp);
+			} catch(IOException e) {
+				Log.e(TAG, "Bad compiled map file: " + e);
+			}
+			if(maps == null) {
+				maps = new CellularMapFile(new InputStreamReader(
+						context.getResources().openRawResource(R.raw.life)));
+				try {
+					maps.write(compiled, stamp);
+				} catch(IOException e) {
+					Log.e(TAG, "Could not write compiled map file: " + e);
+				}
+			}
+			return maps;
+		}
+		
+		/**
+		 * Save the board shown on screen, so that a new grid or a new engine
+		 * carries on from the same generation. The snapshot is written to a
+		 * temporary file and renamed into place.
+		 */
+		private void saveState() {
+			if(cg == null)
+				return;
+			snapshot = cg.writeSnapshot(snapshot);
+			File file = new File(context.getFilesDir(), SNAPSHOT_NAME);
+			File tmp = new File(file.getPath() + ".tmp");
+			try {
+				FileOutputStream out = new FileOutputStream(tmp);
+				try {
+					FileChannel channel = out.getChannel();
+					while(snapshot.hasRemaining())
+						channel.write(snapshot);
+				} finally {
+					out.close();
+				}
+				if(!tmp.renameTo(file))
+					Log.e(TAG, "Could not replace " + file);
+			} catch(IOException e) {
+				Log.e(TAG, "Could not save the board: " + e);
+			}
+		}
+		
+		/**
+		 * Restore the board saved by saveState(). A board of another size is
+		 * rotated or cropped to fit, and the current wrap setting applies.
+		 * @param width The width of the grid wanted
+		 * @param height The height of the grid wanted
+		 * @return The grid, or null if there is no usable snapshot
+		 */
+		private CellularGrid restoreState(int width, int height) {
+			File file = new File(context.getFilesDir(), SNAPSHOT_NAME);
+			if(!file.exists())
+				return null;
+			try {
+				CellularGrid saved;
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					FileChannel channel = raf.getChannel();
+					saved = CellularGrid.readSnapshot(channel.map(
+							FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+				} finally {
+					raf.close();
+				}
+				if(saved.getWidth() != width || saved.getHeight() != height)
+					saved = new CellularGrid(width, height, saved);
+				saved.setWrap(this.wrapped);
+				return saved;
+			} catch(IOException e) {
+				Log.e(TAG, "Could not restore the board: " + e);
+				return null;
+			}
+		}
+		
 		/**
 		 * 
 		 */
@@ -104,17 +291,59 @@ public class LifeWallpaper extends WallpaperService {
 		public void onVisibilityChanged(boolean visible) {
 			super.onVisibilityChanged(visible);
 			if(visible) {
+				// The surface may have been lost while hidden
+				theme.invalidate();
 				this.run();
 			} else {
 				handler.removeCallbacks(this);
+				scheduler.pause();
+				saveState();
+			}
+		}
+		
+		@Override
+		public void onDestroy() {
+			super.onDestroy();
+			handler.removeCallbacks(this);
+			reset();
+		}
+		
+		/**
+		 * Save the board, stop the simulation and drop the grid so that it is
+		 * recreated on the next frame.
+		 */
+		private void reset() {
+			saveState();
+			if(sim != null) {
+				sim.stop();
+				sim = null;
 			}
+			cg = null;
+		}
+		
+		/**
+		 * Get the policy for a board which has settled into a cycle. Idle
+		 * boards are slowed down by run() instead, so they have no policy.
+		 * @return The policy, or null
+		 */
+		private Simulation.CyclePolicy cyclePolicy() {
+			if(!stagnation.equals("reseed"))
+				return null;
+			return new Simulation.CyclePolicy() {
+				public boolean onCycle(CellularGrid grid, int period) {
+					Log.d(TAG, "Reseeding after a cycle of " + period);
+					grid.randomize();
+					return true;
+				}
+			};
 		}
 		
 		/**
 		 * Receive the touch event.
 		 */
 		public void onTouchEvent(MotionEvent m) {
-			cg.set((int)m.getX() / cSize, (int)m.getY() / cSize, 4);
+			if(sim != null)
+				sim.touch((int)m.getX() / cSize, (int)m.getY() / cSize, 4);
 		}
 		
 		public void onSurfaceChanged(SurfaceHolder holder, int format, 
@@ -132,16 +361,44 @@ public class LifeWallpaper extends WallpaperService {
 				int size = Integer.parseInt(prefs.getString("size", "20"));
 				if(size != cSize) {
 					this.cSize = size;
-					this.cg = null;
+					reset();
 				}
 			}
 			
 			this.cFPS = Integer.parseInt(prefs.getString("speed", "20"));
+			if(cFPS != scheduler.getRate())
+				scheduler.setRate(cFPS);
+			
+			this.stagnation = prefs.getString("stagnation", "reseed");
+			if(sim != null)
+				sim.setCyclePolicy(cyclePolicy());
+			
+			try {
+				LifeRule rule = LifeRule.parse(prefs.getString("rule", 
+						LifeRule.CONWAY.toString()));
+				if(!rule.equals(this.rule)) {
+					this.rule = rule;
+					if(sim != null) {
+						sim.setRule(rule);
+						cg.setRule(rule);
+					}
+				}
+			} catch(IllegalArgumentException e) {
+				Log.e(TAG, "Bad rule: " + e);
+			}
+			
+			boolean aging = prefs.getBoolean("aging", false);
+			if(aging != this.aging) {
+				this.aging = aging;
+				if(sim != null) {
+					sim.setAgeTracking(aging);
+					cg.setAgeTracking(aging);
+				}
+			}
 			
 			boolean wrapped = prefs.getBoolean("wrapped", false);
 			if(wrapped != this.wrapped) {
-				if(this.cg != null)
-					this.cg = null;
+				reset();
 				this.wrapped = wrapped;
 			}
 			String themeName = prefs.getString("theme", "DefaultTheme");
@@ -150,7 +407,7 @@ public class LifeWallpaper extends WallpaperService {
 			theme.setTheme(themeName, cg);
 			
 			if(themeName.compareTo("Random") == 0) {
-				theme.setRandom(true, this.cFPS);
+				theme.setRandom(true, scheduler.getFrameRate());
 			}
 		}
 	}
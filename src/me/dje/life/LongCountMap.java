@@ -0,0 +1,150 @@
+package me.dje.life;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of long keys in open addressed primitive arrays. This is
+ * the counting partner of LongHashSet and uses the same slot layout.
+ * @author dylan
+ *
+ */
+public class LongCountMap {
+	private long keys[];
+	private int counts[];
+	private int size, mask;
+
+	/**
+	 * Create a map.
+	 * @param expected The number of keys expected
+	 */
+	public LongCountMap(int expected) {
+		int capacity = 16;
+		while(capacity < expected * 2)
+			capacity <<= 1;
+		keys = new long[capacity];
+		counts = new int[capacity];
+		Arrays.fill(keys, LongHashSet.EMPTY);
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	public LongCountMap() {
+		this(8);
+	}
+
+	/**
+	 * Add one to the count of a key.
+	 * @param key The key, which must not be LongHashSet.EMPTY
+	 * @return The new count
+	 */
+	public int increment(long key) {
+		int i = LongHashSet.hash(key) & mask;
+		while(keys[i] != LongHashSet.EMPTY) {
+			if(keys[i] == key)
+				return ++counts[i];
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		counts[i] = 1;
+		if(++size * 2 > keys.length)
+			resize();
+		return 1;
+	}
+
+	/**
+	 * Set the count of a key, for using the map as a table of ints.
+	 * @param key The key, which must not be LongHashSet.EMPTY
+	 * @param count The new count
+	 */
+	public void put(long key, int count) {
+		int i = LongHashSet.hash(key) & mask;
+		while(keys[i] != LongHashSet.EMPTY) {
+			if(keys[i] == key) {
+				counts[i] = count;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		counts[i] = count;
+		if(++size * 2 > keys.length)
+			resize();
+	}
+
+	/**
+	 * Get the count of a key.
+	 * @param key The key
+	 * @return The count, zero if the key was never counted
+	 */
+	public int get(long key) {
+		int i = LongHashSet.hash(key) & mask;
+		while(keys[i] != LongHashSet.EMPTY) {
+			if(keys[i] == key)
+				return counts[i];
+			i = (i + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Remove every key, keeping the allocated slots.
+	 */
+	public void clear() {
+		if(size > 0) {
+			Arrays.fill(keys, LongHashSet.EMPTY);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Get the number of keys counted.
+	 * @return The number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the number of slots, for walking the map with keyAt().
+	 * @return The number of slots
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the key in a slot.
+	 * @param i The slot index
+	 * @return The key or LongHashSet.EMPTY
+	 */
+	public long keyAt(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * Get the count in a slot.
+	 * @param i The slot index
+	 * @return The count of the key in the slot
+	 */
+	public int countAt(int i) {
+		return counts[i];
+	}
+
+	private void resize() {
+		long oldKeys[] = keys;
+		int oldCounts[] = counts;
+		keys = new long[oldKeys.length << 1];
+		counts = new int[keys.length];
+		Arrays.fill(keys, LongHashSet.EMPTY);
+		mask = keys.length - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldKeys[j] == LongHashSet.EMPTY)
+				continue;
+			int i = LongHashSet.hash(oldKeys[j]) & mask;
+			while(keys[i] != LongHashSet.EMPTY)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			counts[i] = oldCounts[j];
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package me.dje.life;
+
+import java.util.Arrays;
+
+/**
+ * A set of long keys stored in a single open addressed array, so that adding
+ * and testing keys never boxes or allocates. Slots can be walked directly
+ * with capacity() and keyAt(), where empty slots hold EMPTY.
+ * @author dylan
+ *
+ */
+public class LongHashSet {
+	/**
+	 * The value of an empty slot, which can not be stored in the set.
+	 */
+	public static final long EMPTY = Long.MIN_VALUE;
+	private long keys[];
+	private int size, mask;
+
+	/**
+	 * Create a set.
+	 * @param expected The number of keys expected
+	 */
+	public LongHashSet(int expected) {
+		int capacity = 16;
+		while(capacity < expected * 2)
+			capacity <<= 1;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	public LongHashSet() {
+		this(8);
+	}
+
+	/**
+	 * Spread the bits of a key over the whole hash.
+	 * @param key The key
+	 * @return The hash
+	 */
+	static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		key *= 0xC4CEB9FE1A85EC53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+
+	/**
+	 * Add a key to the set.
+	 * @param key The key to add
+	 * @return True if the key was not already in the set
+	 */
+	public boolean add(long key) {
+		int i = hash(key) & mask;
+		while(keys[i] != EMPTY) {
+			if(keys[i] == key)
+				return false;
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		if(++size * 2 > keys.length)
+			resize();
+		return true;
+	}
+
+	/**
+	 * Determine if a key is in the set.
+	 * @param key The key
+	 * @return True if the set contains the key
+	 */
+	public boolean contains(long key) {
+		int i = hash(key) & mask;
+		while(keys[i] != EMPTY) {
+			if(keys[i] == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove every key, keeping the allocated slots.
+	 */
+	public void clear() {
+		if(size > 0) {
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Get the number of keys in the set.
+	 * @return The size of the set
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the number of slots, for walking the set with keyAt().
+	 * @return The number of slots
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the key in a slot.
+	 * @param i The slot index
+	 * @return The key or EMPTY
+	 */
+	public long keyAt(int i) {
+		return keys[i];
+	}
+
+	private void resize() {
+		long old[] = keys;
+		keys = new long[old.length << 1];
+		Arrays.fill(keys, EMPTY);
+		mask = keys.length - 1;
+		for(long key : old) {
+			if(key == EMPTY)
+				continue;
+			int i = hash(key) & mask;
+			while(keys[i] != EMPTY)
+				i = (i + 1) & mask;
+			keys[i] = key;
+		}
+	}
+}
@@ -0,0 +1,403 @@
+package me.dje.life;
+
+import java.util.ArrayList;
+
+/**
+ * Recognises common objects among the clusters of a board. Each pattern is
+ * reduced to a canonical hash which is the same wherever it is on the board
+ * and whichever way it is rotated or reflected, and the hash is looked up in
+ * a table of known patterns.
+ *
+ * The table is filled from a small built-in catalogue and from the maps of
+ * a map file. Every pattern added is run for up to MAX_PERIOD generations to
+ * find whether it is a still life, an oscillator or a spaceship, and each of
+ * its phases is added, so an object is recognised in any phase.
+ *
+ * Finding the canonical hash means hashing all eight orientations, so the
+ * result for each shape seen is cached under the hash of the shape as it
+ * appears, and a repeat object costs a single lookup.
+ * @author dylan
+ *
+ */
+public class PatternClassifier {
+	/**
+	 * The longest period looked for when a pattern is added.
+	 */
+	public static final int MAX_PERIOD = 30;
+	/**
+	 * Clusters with a bounding box wider or taller than this are not
+	 * classified.
+	 */
+	public static final int MAX_SIZE = 64;
+	private static final int CACHE_LIMIT = 4096;
+	private static final int UNKNOWN = -1;
+
+	/**
+	 * What a pattern does over time.
+	 */
+	public static enum Kind { STILL_LIFE, OSCILLATOR, SPACESHIP, OTHER }
+
+	/**
+	 * A known pattern.
+	 */
+	public static class Pattern {
+		public final String name;
+		public final Kind kind;
+		/**
+		 * The number of generations before the pattern repeats, or 0 if it
+		 * did not repeat within MAX_PERIOD.
+		 */
+		public final int period;
+		/**
+		 * How far the pattern moves each period.
+		 */
+		public final int dx, dy;
+		/**
+		 * The position of the pattern in the table.
+		 */
+		public final int index;
+
+		Pattern(String name, Kind kind, int period, int dx, int dy,
+				int index) {
+			this.name = name;
+			this.kind = kind;
+			this.period = period;
+			this.dx = dx;
+			this.dy = dy;
+			this.index = index;
+		}
+
+		public String toString() {
+			return name;
+		}
+	}
+
+	/*
+	 * The built-in catalogue, as rows of dead (.) and live (O) cells
+	 * separated by slashes.
+	 */
+	private static final String CATALOGUE[][] = {
+		{ "block", "OO/OO" },
+		{ "beehive", ".OO./O..O/.OO." },
+		{ "loaf", ".OO./O..O/.O.O/..O." },
+		{ "boat", "OO./O.O/.O." },
+		{ "ship", "OO./O.O/.OO" },
+		{ "tub", ".O./O.O/.O." },
+		{ "pond", ".OO./O..O/O..O/.OO." },
+		{ "barge", ".O../O.O./.O.O/..O." },
+		{ "long boat", "OO../O.O./.O.O/..O." },
+		{ "snake", "OO.O/O.OO" },
+		{ "aircraft carrier", "OO../O..O/..OO" },
+		{ "blinker", "OOO" },
+		{ "toad", ".OOO/OOO." },
+		{ "beacon", "OO../OO../..OO/..OO" },
+		{ "pentadecathlon", "..O....O../OO.OOOO.OO/..O....O.." },
+		{ "glider", ".O./..O/OOO" },
+		{ "lightweight spaceship", ".O..O/O..../O...O/OOOO." },
+		{ "middleweight spaceship", "...O../.O...O/O...../O....O/OOOOO." },
+		{ "heavyweight spaceship",
+				"...OO../.O....O/O....../O.....O/OOOOOO." },
+		{ "r-pentomino", ".OO/OO./.O." },
+	};
+
+	private final ArrayList<Pattern> patterns;
+	/*
+	 * Canonical hash to table index plus one.
+	 */
+	private final LongCountMap table;
+	/*
+	 * Hash of a shape as seen to table index plus one, or UNKNOWN.
+	 */
+	private final LongCountMap cache;
+	private int xs[], ys[];
+
+	/**
+	 * Create a classifier knowing the built-in catalogue.
+	 */
+	public PatternClassifier() {
+		patterns = new ArrayList<Pattern>();
+		table = new LongCountMap(256);
+		cache = new LongCountMap(256);
+		xs = new int[64];
+		ys = new int[64];
+		for(int i = 0; i < CATALOGUE.length; i++)
+			add(CATALOGUE[i][0], CATALOGUE[i][1]);
+	}
+
+	/**
+	 * Add a pattern drawn as rows of dead (.) and live (O) cells separated
+	 * by slashes.
+	 */
+	private void add(String name, String rows) {
+		SparseGrid grid = new SparseGrid();
+		int x = 0, y = 0;
+		for(int i = 0; i < rows.length(); i++) {
+			char c = rows.charAt(i);
+			if(c == '/') {
+				x = 0;
+				y++;
+				continue;
+			}
+			if(c == 'O')
+				grid.set(x, y);
+			x++;
+		}
+		add(name, grid);
+	}
+
+	/**
+	 * Add every map of a map file as a pattern. Maps which are not a single
+	 * cluster are added too, but will never match one.
+	 * @param maps The map file
+	 * @throws CellularMapFile.UnexpectedTokenException If a map can not be parsed
+	 */
+	public void addMaps(CellularMapFile maps)
+			throws CellularMapFile.UnexpectedTokenException {
+		for(String name : maps.getNames()) {
+			CellularMapFile.Map map = maps.getPoints(name);
+			if(map.size() > 0)
+				add(name, new SparseGrid(map));
+		}
+	}
+
+	/**
+	 * Add a pattern, finding its kind and adding each of its phases. A
+	 * shape already known keeps its first name.
+	 * @param name The name of the pattern
+	 * @param grid A board holding only the pattern, which is stepped
+	 * @return The pattern added, or the one already known
+	 */
+	public Pattern add(String name, SparseGrid grid) {
+		long hashes[] = new long[MAX_PERIOD + 1];
+		long canonical[] = new long[MAX_PERIOD + 1];
+		int lefts[] = new int[MAX_PERIOD + 1];
+		int tops[] = new int[MAX_PERIOD + 1];
+		int period = 0;
+		for(int g = 0; g <= MAX_PERIOD; g++) {
+			int n = points(grid);
+			if(n == 0)
+				break;
+			int box[] = bounds(n);
+			if(g == 0) {
+				int known = table.get(canonical(n, box));
+				if(known != 0)
+					return patterns.get(known - 1);
+			}
+			lefts[g] = box[0];
+			tops[g] = box[1];
+			hashes[g] = hash(n, box, 0);
+			canonical[g] = canonical(n, box);
+			if(g > 0 && hashes[g] == hashes[0]) {
+				period = g;
+				break;
+			}
+			grid.step();
+		}
+
+		Kind kind;
+		int dx = 0, dy = 0;
+		if(period == 0) {
+			kind = Kind.OTHER;
+		} else {
+			dx = lefts[period] - lefts[0];
+			dy = tops[period] - tops[0];
+			if(dx != 0 || dy != 0)
+				kind = Kind.SPACESHIP;
+			else if(period == 1)
+				kind = Kind.STILL_LIFE;
+			else
+				kind = Kind.OSCILLATOR;
+		}
+		Pattern pattern = new Pattern(name, kind, period, dx, dy,
+				patterns.size());
+		patterns.add(pattern);
+		for(int g = 0; g < Math.max(1, period); g++) {
+			if(table.get(canonical[g]) == 0)
+				table.put(canonical[g], pattern.index + 1);
+		}
+		cache.clear();
+		return pattern;
+	}
+
+	/**
+	 * Copy the cells of a board into the scratch arrays.
+	 * @return The number of cells
+	 */
+	private int points(SparseGrid grid) {
+		int n = grid.getPopulation();
+		if(n > xs.length) {
+			xs = new int[n];
+			ys = new int[n];
+		}
+		return grid.getPoints(xs, ys);
+	}
+
+	/**
+	 * Find the bounding box of the cells in the scratch arrays.
+	 * @return The left, top, width and height
+	 */
+	private int[] bounds(int n) {
+		int l = Integer.MAX_VALUE, t = Integer.MAX_VALUE;
+		int r = Integer.MIN_VALUE, b = Integer.MIN_VALUE;
+		for(int i = 0; i < n; i++) {
+			l = Math.min(l, xs[i]);
+			r = Math.max(r, xs[i]);
+			t = Math.min(t, ys[i]);
+			b = Math.max(b, ys[i]);
+		}
+		return new int[] { l, t, r - l + 1, b - t + 1 };
+	}
+
+	/**
+	 * Mix a position with the finalizer of SplitMix64.
+	 */
+	private static long mix(int x, int y) {
+		long z = ((long)x << 32) | (y & 0xFFFFFFFFL);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Hash the cells in the scratch arrays in one orientation, relative to
+	 * their bounding box. The mixed positions are added, so the order of
+	 * the cells does not matter.
+	 * @param n The number of cells
+	 * @param box The left, top, width and height of the cells
+	 * @param t The orientation, 0 to 7, where 0 leaves the cells as they are
+	 * @return The hash
+	 */
+	private long hash(int n, int box[], int t) {
+		int w = box[2] - 1, h = box[3] - 1;
+		long sum = 0;
+		for(int i = 0; i < n; i++) {
+			int x = xs[i] - box[0];
+			int y = ys[i] - box[1];
+			if((t & 1) != 0)
+				x = w - x;
+			if((t & 2) != 0)
+				y = h - y;
+			if((t & 4) != 0)
+				sum += mix(y, x);
+			else
+				sum += mix(x, y);
+		}
+		// Keep clear of the empty slot marker of the tables
+		return (sum == LongHashSet.EMPTY) ? 0 : sum;
+	}
+
+	/**
+	 * Get the smallest hash of the eight orientations of the cells in the
+	 * scratch arrays.
+	 */
+	private long canonical(int n, int box[]) {
+		long min = hash(n, box, 0);
+		for(int t = 1; t < 8; t++)
+			min = Math.min(min, hash(n, box, t));
+		return min;
+	}
+
+	/**
+	 * Look up the cells in the scratch arrays.
+	 */
+	private Pattern lookup(int n, int box[]) {
+		long seen = hash(n, box, 0);
+		int found = cache.get(seen);
+		if(found == 0) {
+			found = table.get(canonical(n, box));
+			if(found == 0)
+				found = UNKNOWN;
+			if(cache.size() >= CACHE_LIMIT)
+				cache.clear();
+			cache.put(seen, found);
+		}
+		return (found == UNKNOWN) ? null : patterns.get(found - 1);
+	}
+
+	/**
+	 * Classify a cluster found by a tracker.
+	 * @param tracker The tracker
+	 * @param id The id of the cluster
+	 * @return The pattern, or null if it is not known
+	 */
+	public Pattern classify(ClusterTracker tracker, int id) {
+		int n = tracker.getPopulation(id);
+		int l = tracker.getLeft(id), t = tracker.getTop(id);
+		int w = tracker.getRight(id) - l, h = tracker.getBottom(id) - t;
+		if(n == 0 || w > MAX_SIZE || h > MAX_SIZE)
+			return null;
+		if(n > xs.length) {
+			xs = new int[n];
+			ys = new int[n];
+		}
+		int i = 0;
+		for(int y = t; y < t + h; y++) {
+			for(int x = l; x < l + w; x++) {
+				if(tracker.getId(x, y) == id) {
+					xs[i] = x;
+					ys[i] = y;
+					i++;
+				}
+			}
+		}
+		return lookup(n, new int[] { l, t, w, h });
+	}
+
+	/**
+	 * Classify a set of cells.
+	 * @param cellXs The horizontal positions
+	 * @param cellYs The vertical positions
+	 * @param n The number of cells
+	 * @return The pattern, or null if it is not known
+	 */
+	public Pattern classify(int cellXs[], int cellYs[], int n) {
+		if(n > xs.length) {
+			xs = new int[n];
+			ys = new int[n];
+		}
+		System.arraycopy(cellXs, 0, xs, 0, n);
+		System.arraycopy(cellYs, 0, ys, 0, n);
+		if(n == 0)
+			return null;
+		return lookup(n, bounds(n));
+	}
+
+	/**
+	 * Count the known patterns among the clusters of a tracker.
+	 * @param tracker The tracker
+	 * @param counts Receives the number of clusters of each pattern, by
+	 * index, followed by the number not known, so it needs one more slot
+	 * than getCount()
+	 * @return The number of clusters
+	 */
+	public int census(ClusterTracker tracker, int counts[]) {
+		for(int i = 0; i < counts.length; i++)
+			counts[i] = 0;
+		int total = 0;
+		for(int id = 0; id < tracker.getIdLimit(); id++) {
+			if(tracker.getPopulation(id) == 0)
+				continue;
+			Pattern p = classify(tracker, id);
+			counts[(p == null) ? patterns.size() : p.index]++;
+			total++;
+		}
+		return total;
+	}
+
+	/**
+	 * Get the number of patterns known.
+	 * @return The number of patterns
+	 */
+	public int getCount() {
+		return patterns.size();
+	}
+
+	/**
+	 * Get a known pattern.
+	 * @param index The index of the pattern
+	 * @return The pattern
+	 */
+	public Pattern getPattern(int index) {
+		return patterns.get(index);
+	}
+}
@@ -0,0 +1,318 @@
+package me.dje.life;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Imports patterns in the common formats used by other Life programs into a
+ * CellularGrid. Two formats are understood:
+ *
+ * Run length encoded (.rle) files have a header line giving the size and
+ * rule, followed by runs of dead (b) and live (o) cells with $ ending a row
+ * and ! ending the pattern.
+ *
+ * Life 1.06 (.lif, .life) files list the coordinates of one live cell per
+ * line after a "#Life 1.06" header.
+ *
+ * Files are decoded as they are read, and runs of live cells are written
+ * into the grid a word at a time, so even very large patterns need no memory
+ * beyond the grid itself.
+ * @author dylan
+ *
+ */
+public class PatternImporter {
+	private final Reader reader;
+	private final char buffer[] = new char[4096];
+	private int pos, limit;
+	private int ch;
+	private int line;
+
+	private PatternImporter(Reader reader) throws IOException {
+		this.reader = reader;
+		pos = limit = 0;
+		line = 1;
+		ch = read();
+	}
+
+	/**
+	 * Import a pattern, choosing the format from the file name.
+	 * @param fileName The name of the file, which must end in .rle, .lif or
+	 * .life
+	 * @param reader The reader supplying the file
+	 * @param grid The grid to set the live cells of
+	 * @param left The grid position of the pattern origin
+	 * @param top The grid position of the pattern origin
+	 * @throws IOException If the file can not be read or is malformed
+	 */
+	public static void read(String fileName, Reader reader, CellularGrid grid,
+			int left, int top) throws IOException {
+		String name = fileName.toLowerCase();
+		if(name.endsWith(".rle"))
+			readRLE(reader, grid, left, top);
+		else if(name.endsWith(".lif") || name.endsWith(".life"))
+			readLife106(reader, grid, left, top);
+		else
+			throw new IllegalArgumentException("Unknown pattern format: "
+					+ fileName);
+	}
+
+	/**
+	 * Import a run length encoded pattern. If the header names a rule the
+	 * grid is switched to it.
+	 * @param reader The reader supplying the file, which is closed afterwards
+	 * @param grid The grid to set the live cells of
+	 * @param left The grid position of the left edge of the pattern
+	 * @param top The grid position of the top edge of the pattern
+	 * @throws IOException If the file can not be read or is malformed
+	 */
+	public static void readRLE(Reader reader, CellularGrid grid, int left,
+			int top) throws IOException {
+		try {
+			new PatternImporter(reader).decodeRLE(grid, left, top);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Import a pattern in Life 1.06 format.
+	 * @param reader The reader supplying the file, which is closed afterwards
+	 * @param grid The grid to set the live cells of
+	 * @param left The grid position of cell (0, 0) of the pattern
+	 * @param top The grid position of cell (0, 0) of the pattern
+	 * @throws IOException If the file can not be read or is malformed
+	 */
+	public static void readLife106(Reader reader, CellularGrid grid,
+			int left, int top) throws IOException {
+		try {
+			new PatternImporter(reader).decodeLife106(grid, left, top);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Read the next character, refilling the buffer when it runs out.
+	 * @return The character or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int read() throws IOException {
+		if(pos == limit) {
+			limit = reader.read(buffer, 0, buffer.length);
+			pos = 0;
+			if(limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[pos++];
+	}
+
+	/**
+	 * Move to the next character, counting lines.
+	 * @throws IOException
+	 */
+	private void next() throws IOException {
+		if(ch == '\n')
+			line++;
+		ch = read();
+	}
+
+	/**
+	 * Skip the rest of the current line, including the line break.
+	 * @throws IOException
+	 */
+	private void skipLine() throws IOException {
+		while(ch != '\n' && ch != -1)
+			next();
+		if(ch == '\n')
+			next();
+	}
+
+	/**
+	 * Skip spaces and tabs, but not line breaks.
+	 * @throws IOException
+	 */
+	private void skipSpaces() throws IOException {
+		while(ch == ' ' || ch == '\t' || ch == '\r')
+			next();
+	}
+
+	/**
+	 * Read an unsigned decimal number.
+	 * @return The number
+	 * @throws IOException If there is no number or it is too large
+	 */
+	private int readNumber() throws IOException {
+		if(ch < '0' || ch > '9')
+			throw error("Expected a number");
+		int n = 0;
+		while(ch >= '0' && ch <= '9') {
+			if(n > (Integer.MAX_VALUE - (ch - '0')) / 10)
+				throw error("Number too large");
+			n = (n * 10) + (ch - '0');
+			next();
+		}
+		return n;
+	}
+
+	/**
+	 * Read a decimal number with an optional sign.
+	 * @return The number
+	 * @throws IOException If there is no number or it is too large
+	 */
+	private int readSignedNumber() throws IOException {
+		if(ch == '-') {
+			next();
+			return -readNumber();
+		}
+		if(ch == '+')
+			next();
+		return readNumber();
+	}
+
+	/**
+	 * Create an exception for malformed input on the current line.
+	 * @param message A description of the error
+	 * @return The exception
+	 */
+	private IOException error(String message) {
+		return new IOException("Line " + line + ": " + message);
+	}
+
+	/**
+	 * Decode the comment lines, header and runs of an RLE file.
+	 */
+	private void decodeRLE(CellularGrid grid, int left, int top)
+			throws IOException {
+		// Comment lines come before the header
+		while(ch == '#')
+			skipLine();
+		skipSpaces();
+		if(ch == 'x')
+			readHeader(grid);
+
+		// Positions are kept as longs so long runs can not overflow
+		long x = 0, y = 0;
+		while(true) {
+			if(x > Integer.MAX_VALUE || y > Integer.MAX_VALUE)
+				throw error("Pattern too large");
+			if(ch == -1)
+				throw error("Pattern ends without !");
+			if(ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
+				next();
+				continue;
+			}
+			int count = 1;
+			if(ch >= '0' && ch <= '9') {
+				count = readNumber();
+				while(ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n')
+					next();
+			}
+			switch(ch) {
+			case 'b':
+			case '.':
+				x += count;
+				break;
+			case 'o':
+			case 'A':
+				setRun(grid, left + x, top + y, count);
+				x += count;
+				break;
+			case '$':
+				y += count;
+				x = 0;
+				break;
+			case '!':
+				return;
+			default:
+				throw error("Unexpected character '" + (char)ch + "'");
+			}
+			next();
+		}
+	}
+
+	/**
+	 * Set a run of live cells, leaving out any part of the run which is
+	 * beyond the edges of the grid.
+	 * @param grid The grid to set the cells of
+	 * @param x The grid position of the first cell
+	 * @param y The grid position of the row
+	 * @param count The number of cells
+	 */
+	private static void setRun(CellularGrid grid, long x, long y, int count) {
+		if(y < 0 || y >= grid.getHeight())
+			return;
+		long start = Math.max(0, x);
+		long end = Math.min(grid.getWidth(), x + count);
+		if(start < end)
+			grid.setRun((int)start, (int)y, (int)(end - start));
+	}
+
+	/**
+	 * Read the "x = m, y = n, rule = r" header line of an RLE file. The size
+	 * is only informative, but the rule is applied to the grid.
+	 */
+	private void readHeader(CellularGrid grid) throws IOException {
+		StringBuilder header = new StringBuilder();
+		while(ch != '\n' && ch != -1) {
+			header.append((char)ch);
+			next();
+		}
+		skipLine();
+		String fields[] = header.toString().split(",");
+		for(String field : fields) {
+			int eq = field.indexOf('=');
+			if(eq < 0)
+				continue;
+			String key = field.substring(0, eq).trim();
+			String value = field.substring(eq + 1).trim();
+			if(key.equals("rule")) {
+				// Drop any bounded grid suffix, such as B3/S23:T100,100
+				int colon = value.indexOf(':');
+				if(colon >= 0)
+					value = value.substring(0, colon);
+				try {
+					grid.setRule(LifeRule.parse(value));
+				} catch(IllegalArgumentException e) {
+					throw error("Unsupported rule " + value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decode the header and coordinate lines of a Life 1.06 file.
+	 */
+	private void decodeLife106(CellularGrid grid, int left, int top)
+			throws IOException {
+		StringBuilder header = new StringBuilder();
+		while(ch != '\n' && ch != -1) {
+			header.append((char)ch);
+			next();
+		}
+		if(!header.toString().trim().equals("#Life 1.06"))
+			throw error("Missing #Life 1.06 header");
+		skipLine();
+		while(true) {
+			skipSpaces();
+			if(ch == -1)
+				return;
+			if(ch == '#' || ch == '\n') {
+				skipLine();
+				continue;
+			}
+			int x = readSignedNumber();
+			skipSpaces();
+			int y = readSignedNumber();
+			skipSpaces();
+			if(ch != '\n' && ch != -1)
+				throw error("Expected the end of the line");
+			long gx = (long)left + x;
+			long gy = (long)top + y;
+			if(gx >= 0 && gx < grid.getWidth() && gy >= 0
+					&& gy < grid.getHeight())
+				grid.set((int)gx, (int)gy);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package me.dje.life;
+
+import java.util.ArrayList;
+
+/**
+ * Runs a CellularGrid on its own thread, so that stepping never holds up
+ * drawing. Each generation is published as a snapshot into a small ring of
+ * buffers and the renderer copies the newest generation it wants into its
+ * own grid.
+ *
+ * A slot in the ring is never written while the renderer may still read it,
+ * so published snapshots are immutable. The stepping thread works ahead of
+ * the renderer until the ring is full and then sleeps, so a hidden wallpaper
+ * costs nothing.
+ *
+ * Changes to the grid from other threads are queued and made by the
+ * stepping thread between steps, so the caller never waits for a step.
+ * @author dylan
+ *
+ */
+public class Simulation implements Runnable {
+	public static final int DEFAULT_CAPACITY = 3;
+	/**
+	 * The longest cycle looked for, which covers the common oscillators.
+	 */
+	public static final int MAX_PERIOD = 30;
+	/**
+	 * The weight of a new sample in the average step time.
+	 */
+	private static final double SMOOTHING = 0.125;
+	private final CellularGrid grid;
+	private final int capacity;
+	private final long slots[][];
+	private final byte stateSlots[][];
+	private long produced, consumed;
+	private double stepCost;
+	private final GridMetrics metrics;
+	private final CycleDetector cycles;
+	private CyclePolicy policy;
+	private volatile int period;
+	private boolean running;
+	private Thread thread;
+	private ArrayList<Runnable> pending, applying;
+
+	/**
+	 * Create a simulation of the given grid. The grid belongs to the
+	 * simulation from now on and must only be changed through it.
+	 * @param grid The grid to step
+	 * @param capacity The number of generations in the ring
+	 */
+	public Simulation(CellularGrid grid, int capacity) {
+		if(capacity < 2)
+			throw new IllegalArgumentException("Capacity too small");
+		this.grid = grid;
+		this.capacity = capacity;
+		this.slots = new long[capacity][];
+		this.stateSlots = new byte[capacity][];
+		for(int i = 0; i < capacity; i++) {
+			slots[i] = grid.snapshot(null);
+			stateSlots[i] = grid.snapshotStates(null);
+		}
+		this.produced = grid.getGeneration();
+		this.consumed = produced;
+		this.cycles = new CycleDetector(MAX_PERIOD);
+		this.period = 0;
+		this.metrics = new GridMetrics();
+		this.pending = new ArrayList<Runnable>();
+		this.applying = new ArrayList<Runnable>();
+	}
+
+	/**
+	 * Decides what happens when the board settles into a cycle.
+	 */
+	public interface CyclePolicy {
+		/**
+		 * Called on the stepping thread, with the grid locked, when the board
+		 * is first found to be cycling. The policy may change the grid, for
+		 * example by reseeding it, before the generation is published.
+		 * @param grid The simulated grid
+		 * @param period The period of the cycle
+		 * @return True if the grid was changed
+		 */
+		boolean onCycle(CellularGrid grid, int period);
+	}
+
+	/**
+	 * Set the policy called when the board settles into a cycle.
+	 * @param policy The policy, or null to only track the period
+	 */
+	public synchronized void setCyclePolicy(CyclePolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Get the period of the cycle the board has settled into.
+	 * @return The period, or 0 if the board is not known to be cycling
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	public Simulation(CellularGrid grid) {
+		this(grid, DEFAULT_CAPACITY);
+	}
+
+	private int slot(long generation) {
+		return (int)(generation % capacity);
+	}
+
+	/**
+	 * Start the stepping thread.
+	 */
+	public synchronized void start() {
+		if(thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "Simulation");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		thread.start();
+	}
+
+	/**
+	 * Stop the stepping thread and wait for it to finish.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized(this) {
+			running = false;
+			t = thread;
+			thread = null;
+			notifyAll();
+		}
+		if(t != null) {
+			t.interrupt();
+			try {
+				t.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The body of the stepping thread.
+	 */
+	public void run() {
+		try {
+			while(true) {
+				CyclePolicy policy;
+				synchronized(this) {
+					while(running && produced + 1 >= consumed + capacity)
+						wait();
+					if(!running)
+						return;
+					policy = this.policy;
+					if(!pending.isEmpty()) {
+						ArrayList<Runnable> swap = applying;
+						applying = pending;
+						pending = swap;
+					}
+				}
+				long g, start;
+				synchronized(grid) {
+					// Edits are only made between steps, on this thread
+					for(int i = 0; i < applying.size(); i++)
+						applying.get(i).run();
+					applying.clear();
+					start = System.nanoTime();
+					grid.step();
+					long stepped = System.nanoTime();
+					synchronized(this) {
+						metrics.sample(grid);
+						metrics.addStep(stepped - start);
+					}
+					int p = cycles.update(grid.getHash());
+					if(p != 0 && period == 0 && policy != null 
+							&& policy.onCycle(grid, p)) {
+						cycles.reset();
+						p = 0;
+					}
+					period = p;
+					g = grid.getGeneration();
+					grid.snapshot(slots[slot(g)]);
+					stateSlots[slot(g)] = 
+							grid.snapshotStates(stateSlots[slot(g)]);
+				}
+				double millis = (System.nanoTime() - start) / 1e6;
+				synchronized(this) {
+					produced = g;
+					stepCost += (millis - stepCost) * SMOOTHING;
+					notifyAll();
+				}
+			}
+		} catch(InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	/**
+	 * Load the newest available generation up to a target into a grid. If
+	 * the stepping thread has fallen behind the newest generation it has
+	 * finished is used instead. Only one thread may acquire generations.
+	 * @param target The generation wanted
+	 * @param view The grid to load the generation into
+	 * @return True if the view changed generation
+	 */
+	public boolean acquire(long target, CellularGrid view) {
+		long g;
+		synchronized(this) {
+			g = Math.min(target, produced);
+			if(g <= consumed)
+				return false;
+		}
+		view.load(slots[slot(g)], stateSlots[slot(g)], g);
+		synchronized(this) {
+			consumed = g;
+			notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Queue an edit of the simulated grid, which the stepping thread makes
+	 * before its next step, so the caller never waits for a step to finish.
+	 * @param edit The edit
+	 */
+	private synchronized void queue(Runnable edit) {
+		pending.add(edit);
+	}
+
+	/**
+	 * Randomly set a square section of the simulated grid before the next
+	 * step.
+	 * @param x The horizontal centre position
+	 * @param y The vertical centre position
+	 * @param r Half the width of the square
+	 */
+	public void touch(final int x, final int y, final int r) {
+		queue(new Runnable() {
+			public void run() {
+				grid.scatter(x, y, r);
+			}
+		});
+	}
+
+	/**
+	 * Change the rule of the simulated grid before the next step.
+	 * Generations already published keep the old rule.
+	 * @param rule The new rule
+	 */
+	public void setRule(final LifeRule rule) {
+		queue(new Runnable() {
+			public void run() {
+				grid.setRule(rule);
+			}
+		});
+	}
+
+	/**
+	 * Switch age tracking of the simulated grid on or off before the next
+	 * step.
+	 * @param ageTracking True to track the ages of cells
+	 */
+	public void setAgeTracking(final boolean ageTracking) {
+		queue(new Runnable() {
+			public void run() {
+				grid.setAgeTracking(ageTracking);
+			}
+		});
+	}
+
+	/**
+	 * Get the average time taken to step and publish a generation.
+	 * @return The time in milliseconds
+	 */
+	public synchronized double getStepCost() {
+		return stepCost;
+	}
+
+	/**
+	 * Move the metrics of every step since the last call into another set of
+	 * metrics. The counts are sampled straight after each step, and the 
+	 * times cover grid.step() but not publishing the generation.
+	 * @param dest The metrics to add to
+	 */
+	public synchronized void drainMetrics(GridMetrics dest) {
+		dest.add(metrics);
+		metrics.reset();
+	}
+
+	/**
+	 * Get the newest generation published by the stepping thread.
+	 * @return The generation
+	 */
+	public synchronized long getProduced() {
+		return produced;
+	}
+}
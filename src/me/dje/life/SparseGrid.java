@@ -0,0 +1,218 @@
+package me.dje.life;
+
+/**
+ * SparseGrid is an engine for very large, mostly empty boards. Only the live
+ * cells are stored, as packed coordinates in a primitive hash set, and each
+ * step only visits live cells and their neighbours. Memory use and step time
+ * depend on the population rather than on the size of the board, which
+ * reaches LIMIT cells from the origin in every direction. Cells beyond that
+ * are always dead, so the neighbours of a live cell never overflow an int
+ * and never pack to LongHashSet.EMPTY.
+ * @author dylan
+ *
+ */
+public class SparseGrid {
+	/**
+	 * The furthest a cell may be from the origin along either axis.
+	 */
+	public static final int LIMIT = Integer.MAX_VALUE - 1;
+	private LongHashSet cells, next;
+	private LongCountMap counts;
+	private long generation;
+	private LifeRule rule;
+
+	/**
+	 * Create an empty board.
+	 */
+	public SparseGrid() {
+		cells = new LongHashSet();
+		next = new LongHashSet();
+		counts = new LongCountMap();
+		generation = 0;
+		rule = LifeRule.CONWAY;
+	}
+
+	/**
+	 * Create a board containing the points of a map.
+	 * @param map The map to load
+	 */
+	public SparseGrid(CellularMapFile.Map map) {
+		this();
+		for(int i = 0; i < map.size(); i++) {
+			set(map.getX(i), map.getY(i));
+		}
+	}
+
+	/**
+	 * Determine whether a cell is within the board.
+	 */
+	private static boolean inRange(int x, int y) {
+		return x >= -LIMIT && x <= LIMIT && y >= -LIMIT && y <= LIMIT;
+	}
+
+	/**
+	 * Pack a coordinate into a key.
+	 */
+	private static long pack(int x, int y) {
+		return ((long)x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Step to the next generation.
+	 */
+	public void step() {
+		counts.clear();
+		for(int i = 0; i < cells.capacity(); i++) {
+			long k = cells.keyAt(i);
+			if(k == LongHashSet.EMPTY)
+				continue;
+			int x = (int)(k >> 32);
+			int y = (int)k;
+			counts.increment(pack(x - 1, y - 1));
+			counts.increment(pack(x, y - 1));
+			counts.increment(pack(x + 1, y - 1));
+			counts.increment(pack(x - 1, y));
+			counts.increment(pack(x + 1, y));
+			counts.increment(pack(x - 1, y + 1));
+			counts.increment(pack(x, y + 1));
+			counts.increment(pack(x + 1, y + 1));
+		}
+
+		next.clear();
+		for(int i = 0; i < counts.capacity(); i++) {
+			long k = counts.keyAt(i);
+			if(k == LongHashSet.EMPTY)
+				continue;
+			// Neighbours beyond the edge are counted but never born
+			if(rule.next(cells.contains(k), counts.countAt(i))
+					&& inRange((int)(k >> 32), (int)k))
+				next.add(k);
+		}
+		// Cells with no live neighbours are never counted
+		if(rule.survives(0)) {
+			for(int i = 0; i < cells.capacity(); i++) {
+				long k = cells.keyAt(i);
+				if(k != LongHashSet.EMPTY && counts.get(k) == 0)
+					next.add(k);
+			}
+		}
+		LongHashSet swap = cells;
+		cells = next;
+		next = swap;
+		generation++;
+	}
+
+	/**
+	 * Step ahead a specified number of times.
+	 * @param n The number of steps
+	 */
+	public void step(int n) {
+		for(int i = 0; i < n; i++)
+			step();
+	}
+
+	/**
+	 * Set the cell at the specified coordinate.
+	 * @param x The horizontal position, within LIMIT of the origin
+	 * @param y The vertical position, within LIMIT of the origin
+	 */
+	public void set(int x, int y) {
+		if(!inRange(x, y))
+			throw new IllegalArgumentException("Cell out of range");
+		cells.add(pack(x, y));
+	}
+
+	/**
+	 * Get the status of the specified cell.
+	 * @param x The horizontal position
+	 * @param y The vertical position
+	 * @return The value of the cell
+	 */
+	public boolean get(int x, int y) {
+		return cells.contains(pack(x, y));
+	}
+
+	/**
+	 * Copy the coordinates of the live cells into arrays, in no particular
+	 * order.
+	 * @param xs Receives the horizontal positions, with room for the whole
+	 * population
+	 * @param ys Receives the vertical positions
+	 * @return The number of cells copied
+	 */
+	public int getPoints(int xs[], int ys[]) {
+		int n = 0;
+		for(int i = 0; i < cells.capacity(); i++) {
+			long k = cells.keyAt(i);
+			if(k == LongHashSet.EMPTY)
+				continue;
+			xs[n] = (int)(k >> 32);
+			ys[n] = (int)k;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Change the rule used to step the board. Rules where cells are born
+	 * with no neighbours would fill the infinite board and are not allowed,
+	 * and neither are Generations rules.
+	 * @param rule The new rule
+	 */
+	public void setRule(LifeRule rule) {
+		if(rule.born(0))
+			throw new IllegalArgumentException("B0 rules are not supported");
+		if(rule.getStates() > 2)
+			throw new IllegalArgumentException(
+					"Generations rules are not supported");
+		this.rule = rule;
+	}
+
+	/**
+	 * Get the rule used to step the board.
+	 * @return The rule
+	 */
+	public LifeRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Get the number of live cells.
+	 * @return The population
+	 */
+	public int getPopulation() {
+		return cells.size();
+	}
+
+	/**
+	 * Get the number of generations the board has been stepped through.
+	 * @return The generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Copy a window of the board into a new grid.
+	 * @param left The board coordinate of the left edge of the window
+	 * @param top The board coordinate of the top edge of the window
+	 * @param width The width of the window
+	 * @param height The height of the window
+	 * @param wrap The wrap setting of the new grid
+	 * @return The new grid
+	 */
+	public CellularGrid toGrid(int left, int top, int width, int height,
+			boolean wrap) {
+		CellularGrid grid = new CellularGrid(width, height, wrap);
+		for(int i = 0; i < cells.capacity(); i++) {
+			long k = cells.keyAt(i);
+			if(k == LongHashSet.EMPTY)
+				continue;
+			long x = (long)(int)(k >> 32) - left;
+			long y = (long)(int)k - top;
+			if(x >= 0 && x < width && y >= 0 && y < height)
+				grid.set((int)x, (int)y);
+		}
+		return grid;
+	}
+}
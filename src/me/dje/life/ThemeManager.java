@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 
 /**
  * Manage the theme.
@@ -14,7 +15,8 @@ import android.graphics.Paint;
  */
 public class ThemeManager {
 	public static String DEFAULT_THEME = "CircleTheme";
-	public static String THEMES[] = {"CircleTheme", "ClassicTheme", "AndroidTheme"};
+	public static String THEMES[] = {"CircleTheme", "ClassicTheme", "AndroidTheme",
+			"PixelTheme"};
 	private CellularGrid grid;
 	private LifeBaseTheme currentTheme;
 	private String currentThemeName;
@@ -65,8 +67,15 @@ public class ThemeManager {
 					this.currentTheme);
 		} 
 		
+		LifeBaseTheme previous = currentTheme;
 		currentTheme = createThemeByName(themeName, grid);
 		currentThemeName = themeName;
+		// Hand the back-buffer on rather than allocating another
+		if(previous != null) {
+			if(currentTheme != null)
+				currentTheme.takeBuffer(previous);
+			previous.release();
+		}
 		return currentTheme;
 	}
 	
@@ -82,25 +91,51 @@ public class ThemeManager {
 	}
 	
 	/**
-	 * Draw the graphics onto the specified canvas.
-	 * @param c The canvas to draw on
+	 * Work out the part of the surface to draw for the next frame. This is
+	 * called once per frame, and also switches random themes.
+	 * @param dirty Receives the area in pixels
+	 * @param width The width of the surface
+	 * @param height The height of the surface
+	 * @return False if nothing needs to be drawn
 	 */
-	public void draw(Canvas c) {
+	public boolean getDirtyRect(Rect dirty, int width, int height) {
 		tick++;
 		if(random && tick > (max * fps)) {
 			randomTheme();
 		}
+		if(currentTheme == null) {
+			dirty.set(0, 0, width, height);
+			return true;
+		}
+		return currentTheme.getDirtyRect(dirty, width, height);
+	}
+	
+	/**
+	 * Draw the graphics onto the specified canvas.
+	 * @param c The canvas to draw on
+	 */
+	public void draw(Canvas c) {
 		if(currentTheme != null) {
 			currentTheme.draw(c);
 		}
 	}
 	
+	/**
+	 * Schedule a redraw of the whole surface.
+	 */
+	public void invalidate() {
+		if(currentTheme != null) {
+			currentTheme.invalidate();
+		}
+	}
+	
 	/**
 	 * Calls the rotation method of the current theme.
 	 */
 	public void rotate(int width, int height) {
 		if(currentTheme != null) {
 			currentTheme.rotate(width, height);
+			currentTheme.invalidate();
 		}
 	}
 	
@@ -122,6 +157,8 @@ public class ThemeManager {
 			t = new ClassicTheme(context,grid);
 		} else if(themeName.compareTo(AndroidTheme.TAG) == 0) {
 			t = new AndroidTheme(context, grid);			
+		} else if(themeName.compareTo(PixelTheme.TAG) == 0) {
+			t = new PixelTheme(context, grid);
 		} else {
 			t = new CircleTheme(context, grid);
 		}